@@ -0,0 +1,95 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.KafkaBatchConsumer;
+import io.github.changebooks.kafka.KafkaBatchListener;
+import io.github.changebooks.kafka.KafkaDispatchMode;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量消费：批次大小、线程数、分发模式、每块行数、单条耗时的倾斜
+ *
+ * @author changebooks@qq.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaBatchListenerBenchmark {
+
+    @Param({"100", "500"})
+    public int batchSize;
+
+    @Param({"1", "4", "8"})
+    public int threadNum;
+
+    @Param({"PAGE", "KEY"})
+    public KafkaDispatchMode dispatchMode;
+
+    @Param({"0", "8"})
+    public int chunkSize;
+
+    /**
+     * 慢消息的比例，0.01：p99 耗时是 p50 的 200 倍
+     */
+    @Param({"0", "0.01"})
+    public double slowRate;
+
+    private ExecutorService executor;
+
+    private KafkaBatchListener<String, String> listener;
+
+    private List<ConsumerRecord<String, String>> records;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        records = Records.generate(batchSize, 12, 1000, 256);
+
+        final long[] costs = Records.costs(batchSize, 1000, slowRate, 200);
+        KafkaBatchConsumer<String, String> consumer = (page, context) -> {
+            for (ConsumerRecord<String, String> r : page) {
+                Blackhole.consumeCPU(costs[(int) r.offset()]);
+            }
+
+            return true;
+        };
+
+        executor = new ThreadPoolExecutor(threadNum, threadNum * 2 + 1, 1L, TimeUnit.MINUTES, new SynchronousQueue<>());
+        listener = new KafkaBatchListener<>(executor, consumer)
+                .setThreadNum(threadNum)
+                .setDispatchMode(dispatchMode)
+                .setChunkSize(chunkSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean listen() {
+        return listener.listen(records, null);
+    }
+
+}
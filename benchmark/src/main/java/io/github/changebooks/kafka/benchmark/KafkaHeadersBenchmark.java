@@ -0,0 +1,91 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.KafkaHeaders;
+import io.github.changebooks.kafka.KafkaLogId;
+import io.github.changebooks.kafka.KafkaTraceContext;
+import io.github.changebooks.kafka.KafkaTraceId;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标头读写
+ *
+ * @author changebooks@qq.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KafkaHeadersBenchmark {
+
+    /**
+     * 其它标头的个数，lastHeader 线性查找
+     */
+    @Param({"0", "8"})
+    public int otherNum;
+
+    private Headers headers;
+
+    /**
+     * 二进制标头，同时携带追溯id和日志id
+     */
+    private Headers binaryHeaders;
+
+    private String traceId;
+
+    private String logId;
+
+    @Setup
+    public void setup() {
+        traceId = "0c315cd6-da27-4dc9-bc29-c7ca937e1691";
+        logId = "76b624f9-53e8-4259-a878-6b60ad1a3a2e";
+
+        headers = new RecordHeaders();
+        KafkaHeaders.set(headers, KafkaTraceId.KEY_NAME, traceId);
+        KafkaHeaders.set(headers, KafkaLogId.KEY_NAME, logId);
+
+        binaryHeaders = new RecordHeaders();
+        binaryHeaders.add(KafkaTraceContext.KEY_NAME, KafkaTraceContext.encode(traceId, logId));
+
+        for (int i = 0; i < otherNum; i++) {
+            KafkaHeaders.set(headers, "other_" + i, "value_" + i);
+            KafkaHeaders.set(binaryHeaders, "other_" + i, "value_" + i);
+        }
+    }
+
+    @Benchmark
+    public String get() {
+        return KafkaHeaders.get(headers, KafkaTraceId.KEY_NAME);
+    }
+
+    @Benchmark
+    public Headers set() {
+        return KafkaHeaders.set(new RecordHeaders(), KafkaTraceId.KEY_NAME, traceId);
+    }
+
+    @Benchmark
+    public String getBinary() {
+        return KafkaTraceContext.getTraceId(binaryHeaders);
+    }
+
+    @Benchmark
+    public Headers setBinary() {
+        return new RecordHeaders().add(KafkaTraceContext.KEY_NAME, KafkaTraceContext.encode(traceId, logId));
+    }
+
+}
@@ -0,0 +1,53 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.LogProducerInterceptor;
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拦截发送消息：复制标头、直接追加
+ * 以 -prof gc 运行，对比每次发送的分配
+ *
+ * @author changebooks@qq.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogProducerInterceptorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean inPlace;
+
+    private LogProducerInterceptor<String, String> interceptor;
+
+    @Setup
+    public void setup() {
+        LogTraceId.init();
+        LogId.init();
+
+        interceptor = new LogProducerInterceptor<String, String>().setInPlace(inPlace);
+    }
+
+    @Benchmark
+    public ProducerRecord<String, String> onSend() {
+        return interceptor.onSend(new ProducerRecord<>(Records.TOPIC, "key", "value"));
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.PageUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页、分组，遍历 subList 视图
+ *
+ * @author changebooks@qq.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageUtilsBenchmark {
+
+    @Param({"100", "500", "2000"})
+    public int batchSize;
+
+    @Param({"4", "8", "16"})
+    public int threadNum;
+
+    private List<ConsumerRecord<String, String>> records;
+
+    @Setup
+    public void setup() {
+        records = Records.generate(batchSize, 12, 1000, 256);
+    }
+
+    @Benchmark
+    public void compute(Blackhole blackhole) {
+        iterate(PageUtils.compute(records, threadNum), blackhole);
+    }
+
+    @Benchmark
+    public void page(Blackhole blackhole) {
+        iterate(PageUtils.page(records, 16), blackhole);
+    }
+
+    @Benchmark
+    public void group(Blackhole blackhole) {
+        iterate(PageUtils.group(records, threadNum, r -> r.key().hashCode()), blackhole);
+    }
+
+    private static void iterate(List<List<ConsumerRecord<String, String>>> pageList, Blackhole blackhole) {
+        for (List<ConsumerRecord<String, String>> page : pageList) {
+            for (ConsumerRecord<String, String> r : page) {
+                blackhole.consume(r);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.KafkaLogId;
+import io.github.changebooks.kafka.KafkaTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * 模拟消息
+ *
+ * @author changebooks@qq.com
+ */
+public final class Records {
+    /**
+     * 主题
+     */
+    public static final String TOPIC = "benchmark";
+
+    private Records() {
+    }
+
+    /**
+     * 生成消息列表
+     * 同一批次共用一个追溯id和日志id
+     *
+     * @param size         总行数
+     * @param partitionNum 分区数
+     * @param keyNum       键数
+     * @param valueSize    每条消息的字节数
+     * @return 消息列表
+     */
+    public static List<ConsumerRecord<String, String>> generate(int size, int partitionNum, int keyNum, int valueSize) {
+        Random random = new Random(size);
+
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+
+        byte[] traceId = Utils.utf8("trace-" + random.nextLong());
+        byte[] logId = Utils.utf8("log-" + random.nextLong());
+
+        List<ConsumerRecord<String, String>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(KafkaTraceId.KEY_NAME, traceId);
+            headers.add(KafkaLogId.KEY_NAME, logId);
+
+            result.add(new ConsumerRecord<>(
+                    TOPIC,
+                    i % partitionNum,
+                    i,
+                    System.currentTimeMillis(),
+                    TimestampType.CREATE_TIME,
+                    -1,
+                    valueSize,
+                    "key-" + random.nextInt(keyNum),
+                    value,
+                    headers,
+                    Optional.empty()));
+        }
+
+        return result;
+    }
+
+    /**
+     * 生成每条消息的耗时
+     *
+     * @param size     总行数
+     * @param tokens   每条消息的耗时，{@link org.openjdk.jmh.infra.Blackhole#consumeCPU(long)}
+     * @param slowRate 慢消息的比例，[0, 1]
+     * @param slowCost 慢消息的耗时倍数
+     * @return 下标 = 位移
+     */
+    public static long[] costs(int size, long tokens, double slowRate, int slowCost) {
+        Random random = new Random(size);
+
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = random.nextDouble() < slowRate ? tokens * slowCost : tokens;
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,748 @@
+package io.github.changebooks.kafka.benchmark;
+
+import io.github.changebooks.kafka.KafkaBatchConsumer;
+import io.github.changebooks.kafka.KafkaBatchListener;
+import io.github.changebooks.kafka.KafkaBatchResult;
+import io.github.changebooks.kafka.KafkaDispatchMode;
+import io.github.changebooks.kafka.KafkaHeaderFormat;
+import io.github.changebooks.kafka.LogConsumerInterceptor;
+import io.github.changebooks.kafka.LogProducerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 离线压测、浸泡测试
+ * 不依赖集群：{@link LogProducerInterceptor} 设置标头 -> {@link MockConsumer} -> {@link LogConsumerInterceptor}
+ * -> {@link KafkaBatchListener} -> 模拟的 {@link KafkaBatchConsumer}，按批量消费结果提交位移，失败时回退重新拉取
+ * 按目标速率生成消息，可配置键的倾斜、失败率、消息大小、单条耗时
+ * 每次拉取不超过 batchSize 行，同 max.poll.records；吞吐按已提交的位移计算
+ * 每个报告周期输出吞吐、批次耗时分位数、GC 次数和耗时、分配速率，结束时输出汇总
+ * 设置 minRate 或 maxP99 时，未达标则退出码为 1，可在构建中检查端到端的性能回退
+ * <pre>
+ * java -cp target/benchmarks.jar io.github.changebooks.kafka.benchmark.SoakHarness \
+ *     --rate=50000 --duration=60 --threadNum=8 --keySkew=1.1 --failureRate=0.0001 --minRate=45000
+ * </pre>
+ *
+ * @author changebooks@qq.com
+ */
+public final class SoakHarness {
+    /**
+     * 配置
+     */
+    private final Config config;
+
+    /**
+     * 每个键的累积概率，Zipf 分布
+     */
+    private final double[] keyCdf;
+
+    /**
+     * 消息内容
+     */
+    private final String payload;
+
+    /**
+     * 拉取
+     */
+    private final MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+    /**
+     * 设置发送消息的标头
+     */
+    private final LogProducerInterceptor<String, String> producerInterceptor = new LogProducerInterceptor<String, String>().setInPlace(true);
+
+    /**
+     * 设置接收消息的日志上下文
+     */
+    private final LogConsumerInterceptor<String, String> consumerInterceptor = new LogConsumerInterceptor<>();
+
+    /**
+     * 每个分区下一个位移
+     */
+    private final long[] nextOffsets;
+
+    /**
+     * 每个分区已提交的位移
+     */
+    private final long[] committedOffsets;
+
+    /**
+     * 拉取队列中的行数
+     */
+    private int queued;
+
+    /**
+     * 本次拉取超出 batchSize 的消息，提交后重新放入拉取队列
+     */
+    private List<ConsumerRecord<String, String>> overflow = new ArrayList<>();
+
+    /**
+     * 生成消息的随机数
+     */
+    private final Random random = new Random(42L);
+
+    private SoakHarness(Config config) {
+        this.config = config;
+        this.producerInterceptor.setHeaderFormat(config.headerFormat);
+        this.keyCdf = zipf(config.keys, config.keySkew);
+        this.nextOffsets = new long[config.partitions];
+        this.committedOffsets = new long[config.partitions];
+
+        char[] chars = new char[config.payloadSize];
+        Arrays.fill(chars, 'v');
+        this.payload = new String(chars);
+
+        List<TopicPartition> partitions = new ArrayList<>(config.partitions);
+        Map<TopicPartition, Long> beginningOffsets = new HashMap<>();
+        for (int p = 0; p < config.partitions; p++) {
+            TopicPartition tp = new TopicPartition(Records.TOPIC, p);
+            partitions.add(tp);
+            beginningOffsets.put(tp, 0L);
+        }
+
+        consumer.assign(partitions);
+        consumer.updateBeginningOffsets(beginningOffsets);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        System.out.println("soak config: " + config);
+
+        boolean passed = new SoakHarness(config).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * 运行
+     *
+     * @return 达标？
+     */
+    private boolean run() throws InterruptedException {
+        ExecutorService executor = new ThreadPoolExecutor(config.threadNum, config.threadNum, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<>(executor, syntheticConsumer())
+                .setThreadNum(config.threadNum)
+                .setDispatchMode(config.dispatchMode)
+                .setChunkSize(config.chunkSize)
+                .setRecordLog(config.recordLog);
+
+        try {
+            Window warmup = new Window();
+            loop(listener, TimeUnit.SECONDS.toNanos(config.warmup), warmup, false);
+            System.out.println("warmup: " + warmup.report());
+
+            Window total = new Window();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.duration);
+            while (System.nanoTime() < end) {
+                Window window = new Window();
+                loop(listener, Math.min(TimeUnit.SECONDS.toNanos(config.interval), end - System.nanoTime()), window, true);
+                System.out.println("interval: " + window.report());
+                total.merge(window);
+            }
+
+            System.out.println("total: " + total.report());
+            return check(total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 按目标速率生成、拉取、消费、提交
+     *
+     * @param listener 批量消费
+     * @param duration 持续时间，纳秒
+     * @param window   统计窗口
+     * @param measure  记录批次耗时？
+     */
+    private void loop(KafkaBatchListener<String, String> listener, long duration, Window window, boolean measure) throws InterruptedException {
+        window.begin();
+
+        long start = System.nanoTime();
+        long produced = 0L;
+
+        while (System.nanoTime() - start < duration) {
+            // 拉取队列最多积压一个批次，消费跟不上时，少生成
+            long due = config.rate > 0 ? (System.nanoTime() - start) * config.rate / 1000000000L - produced : config.batchSize;
+            int n = (int) Math.min(due, config.batchSize - queued);
+            if (n <= 0 && queued == 0) {
+                TimeUnit.MICROSECONDS.sleep(100L);
+                continue;
+            }
+
+            for (int i = 0; i < n; i++) {
+                produce();
+            }
+
+            produced += Math.max(n, 0);
+
+            List<ConsumerRecord<String, String>> records = poll();
+            if (records.isEmpty()) {
+                continue;
+            }
+
+            long batchStart = System.nanoTime();
+            KafkaBatchResult<String, String> result = listener.listenResult(records, null);
+            long elapsed = System.nanoTime() - batchStart;
+
+            long committed = commit(result);
+            window.onBatch(committed, result.isSuccess(), elapsed, measure);
+        }
+
+        window.end();
+    }
+
+    /**
+     * 生成一条消息：发送拦截器设置标头，放入拉取队列
+     */
+    private void produce() {
+        int partition = random.nextInt(config.partitions);
+        String key = "key-" + nextKey();
+
+        ProducerRecord<String, String> sent = producerInterceptor.onSend(new ProducerRecord<>(Records.TOPIC, partition, key, payload));
+
+        queued++;
+        consumer.addRecord(new ConsumerRecord<>(
+                Records.TOPIC,
+                partition,
+                nextOffsets[partition]++,
+                System.currentTimeMillis(),
+                TimestampType.CREATE_TIME,
+                key.length(),
+                config.payloadSize,
+                key,
+                payload,
+                sent.headers(),
+                Optional.empty()));
+    }
+
+    /**
+     * 拉取，不超过 batchSize 行，超出的消息提交后重新拉取
+     *
+     * @return 已接收的消息
+     */
+    private List<ConsumerRecord<String, String>> poll() {
+        ConsumerRecords<String, String> polled = consumer.poll(Duration.ZERO);
+
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> batch = new HashMap<>();
+        List<ConsumerRecord<String, String>> rest = new ArrayList<>();
+        int size = 0;
+
+        for (ConsumerRecord<String, String> r : polled) {
+            if (size < config.batchSize) {
+                batch.computeIfAbsent(new TopicPartition(r.topic(), r.partition()), k -> new ArrayList<>()).add(r);
+                size++;
+            } else {
+                rest.add(r);
+            }
+        }
+
+        overflow = rest;
+        queued = 0;
+
+        List<ConsumerRecord<String, String>> records = new ArrayList<>(size);
+        for (ConsumerRecord<String, String> r : consumerInterceptor.onConsume(new ConsumerRecords<>(batch))) {
+            records.add(r);
+        }
+
+        return records;
+    }
+
+    /**
+     * 提交连续消费成功的位移，失败的消息和超出 batchSize 的消息重新放入拉取队列
+     *
+     * @param result 批量消费结果
+     * @return 新提交的行数
+     */
+    private long commit(KafkaBatchResult<String, String> result) {
+        long committed = 0L;
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = result.getOffsets();
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+            consumerInterceptor.onCommit(offsets);
+
+            for (Map.Entry<TopicPartition, OffsetAndMetadata> e : offsets.entrySet()) {
+                int partition = e.getKey().partition();
+                long offset = e.getValue().offset();
+                if (offset > committedOffsets[partition]) {
+                    committed += offset - committedOffsets[partition];
+                    committedOffsets[partition] = offset;
+                }
+            }
+        }
+
+        List<ConsumerRecord<String, String>> retries = new ArrayList<>();
+
+        if (!result.isSuccess()) {
+            // 每分区首条失败的消息及之后的消息重新拉取
+            Map<TopicPartition, Long> failed = new HashMap<>();
+            for (ConsumerRecord<String, String> r : result.getFailedRecords()) {
+                failed.merge(new TopicPartition(r.topic(), r.partition()), r.offset(), Math::min);
+            }
+
+            for (ConsumerRecord<String, String> r : result.getRecords()) {
+                Long offset = failed.get(new TopicPartition(r.topic(), r.partition()));
+                if (offset != null && r.offset() >= offset) {
+                    retries.add(r);
+                }
+            }
+        }
+
+        // 超出的消息位移更大，排在失败的消息之后
+        retries.addAll(overflow);
+        overflow = new ArrayList<>();
+
+        requeue(retries);
+        return committed;
+    }
+
+    /**
+     * 重新放入拉取队列，每分区回退到首条消息
+     * 拉取时，位移小于当前位置的消息被跳过，同分区的消息须按位移顺序放入
+     *
+     * @param records 同分区按位移升序的消息
+     */
+    private void requeue(List<ConsumerRecord<String, String>> records) {
+        Map<TopicPartition, Long> seeks = new HashMap<>();
+        for (ConsumerRecord<String, String> r : records) {
+            seeks.putIfAbsent(new TopicPartition(r.topic(), r.partition()), r.offset());
+        }
+
+        for (Map.Entry<TopicPartition, Long> e : seeks.entrySet()) {
+            consumer.seek(e.getKey(), e.getValue());
+        }
+
+        for (ConsumerRecord<String, String> r : records) {
+            consumer.addRecord(r);
+        }
+
+        queued += records.size();
+    }
+
+    /**
+     * 模拟的消费接口：每条消息忙等单条耗时，按失败率返回失败
+     *
+     * @return 消费接口
+     */
+    private KafkaBatchConsumer<String, String> syntheticConsumer() {
+        final long costNanos = TimeUnit.MICROSECONDS.toNanos(config.costMicros);
+        final double failureRate = config.failureRate;
+
+        return (records, context) -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            boolean success = true;
+
+            for (ConsumerRecord<String, String> record : records) {
+                if (costNanos > 0) {
+                    long until = System.nanoTime() + costNanos;
+                    while (System.nanoTime() < until) {
+                        // 忙等
+                    }
+                }
+
+                if (failureRate > 0 && r.nextDouble() < failureRate) {
+                    success = false;
+                }
+            }
+
+            return success;
+        };
+    }
+
+    /**
+     * 按 Zipf 分布生成键
+     *
+     * @return 键的序号
+     */
+    private int nextKey() {
+        int index = Arrays.binarySearch(keyCdf, random.nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, keyCdf.length - 1);
+    }
+
+    /**
+     * Zipf 分布的累积概率
+     *
+     * @param keys 键数
+     * @param skew 倾斜指数，0：均匀分布
+     * @return 累积概率
+     */
+    private static double[] zipf(int keys, double skew) {
+        double[] cdf = new double[keys];
+
+        double sum = 0.0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+
+        for (int i = 0; i < keys; i++) {
+            cdf[i] /= sum;
+        }
+
+        return cdf;
+    }
+
+    /**
+     * 达标？
+     *
+     * @param total 汇总
+     * @return 吞吐不低于 minRate，且 p99 不高于 maxP99
+     */
+    private boolean check(Window total) {
+        boolean passed = true;
+
+        if (config.minRate > 0 && total.rate() < config.minRate) {
+            System.out.println("FAILED: msgs/s " + (long) total.rate() + " < minRate " + config.minRate);
+            passed = false;
+        }
+
+        double p99 = total.percentile(0.99) / 1e6;
+        if (config.maxP99 > 0 && p99 > config.maxP99) {
+            System.out.println("FAILED: p99 " + p99 + "ms > maxP99 " + config.maxP99 + "ms");
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    /**
+     * 统计窗口：消息数、失败批次数、批次耗时、GC、分配
+     */
+    private static final class Window {
+        long messages;
+
+        long batches;
+
+        long failedBatches;
+
+        long[] latencies = new long[1024];
+
+        int latencySize;
+
+        long startNanos;
+
+        long elapsedNanos;
+
+        long gcCount;
+
+        long gcMillis;
+
+        long allocatedBytes;
+
+        void begin() {
+            startNanos = System.nanoTime();
+            gcCount = -gcCount();
+            gcMillis = -gcMillis();
+            allocatedBytes = -allocatedBytes();
+        }
+
+        void end() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            gcCount += gcCount();
+            gcMillis += gcMillis();
+            allocatedBytes += allocatedBytes();
+        }
+
+        void onBatch(long committed, boolean success, long elapsed, boolean measure) {
+            messages += committed;
+            batches++;
+
+            if (!success) {
+                failedBatches++;
+            }
+
+            if (measure) {
+                if (latencySize == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, latencySize * 2);
+                }
+
+                latencies[latencySize++] = elapsed;
+            }
+        }
+
+        void merge(Window other) {
+            messages += other.messages;
+            batches += other.batches;
+            failedBatches += other.failedBatches;
+            elapsedNanos += other.elapsedNanos;
+            gcCount += other.gcCount;
+            gcMillis += other.gcMillis;
+            allocatedBytes += other.allocatedBytes;
+
+            if (latencySize + other.latencySize > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, latencySize + other.latencySize));
+            }
+
+            System.arraycopy(other.latencies, 0, latencies, latencySize, other.latencySize);
+            latencySize += other.latencySize;
+        }
+
+        double rate() {
+            return elapsedNanos > 0 ? messages * 1e9 / elapsedNanos : 0.0;
+        }
+
+        long percentile(double p) {
+            if (latencySize == 0) {
+                return 0L;
+            }
+
+            long[] sorted = Arrays.copyOf(latencies, latencySize);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(latencySize - 1, Math.ceil(p * latencySize) - 1)];
+        }
+
+        String report() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("msgs/s=%.0f batches=%d failedBatches=%d " +
+                            "latency(ms) p50=%.3f p90=%.3f p99=%.3f p999=%.3f max=%.3f " +
+                            "gc=%d gcTime=%dms alloc=%.1fMB/s",
+                    rate(), batches, failedBatches,
+                    percentile(0.5) / 1e6, percentile(0.9) / 1e6, percentile(0.99) / 1e6,
+                    percentile(0.999) / 1e6, percentile(1.0) / 1e6,
+                    gcCount, gcMillis, seconds > 0 ? allocatedBytes / seconds / 1048576 : 0.0);
+        }
+
+        static long gcCount() {
+            long result = 0L;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                result += Math.max(gc.getCollectionCount(), 0L);
+            }
+
+            return result;
+        }
+
+        static long gcMillis() {
+            long result = 0L;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                result += Math.max(gc.getCollectionTime(), 0L);
+            }
+
+            return result;
+        }
+
+        /**
+         * 全部存活线程的累计分配字节数
+         * 非 HotSpot 虚拟机，返回 0
+         *
+         * @return 字节数
+         */
+        static long allocatedBytes() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+                return 0L;
+            }
+
+            long result = 0L;
+            for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+                result += Math.max(bytes, 0L);
+            }
+
+            return result;
+        }
+
+    }
+
+    /**
+     * 配置，命令行参数：--名称=值
+     */
+    private static final class Config {
+        /**
+         * 目标速率，条/秒，0：不限速
+         */
+        long rate = 0L;
+
+        /**
+         * 持续时间，秒
+         */
+        long duration = 60L;
+
+        /**
+         * 预热时间，秒
+         */
+        long warmup = 10L;
+
+        /**
+         * 报告周期，秒
+         */
+        long interval = 10L;
+
+        /**
+         * 每次拉取的最大行数，如：max.poll.records
+         */
+        int batchSize = 500;
+
+        /**
+         * 分区数
+         */
+        int partitions = 12;
+
+        /**
+         * 键数
+         */
+        int keys = 10000;
+
+        /**
+         * 键的倾斜指数，Zipf 分布，0：均匀分布
+         */
+        double keySkew = 0.0;
+
+        /**
+         * 每条消息的失败率
+         */
+        double failureRate = 0.0;
+
+        /**
+         * 每条消息的字节数
+         */
+        int payloadSize = 256;
+
+        /**
+         * 每条消息的耗时，微秒
+         */
+        long costMicros = 10L;
+
+        /**
+         * 线程数
+         */
+        int threadNum = 4;
+
+        /**
+         * 分发模式
+         */
+        KafkaDispatchMode dispatchMode = KafkaDispatchMode.PAGE;
+
+        /**
+         * 每块行数
+         */
+        int chunkSize = 0;
+
+        /**
+         * 逐条设置日志上下文？
+         */
+        boolean recordLog = false;
+
+        /**
+         * 日志标头格式
+         */
+        KafkaHeaderFormat headerFormat = KafkaHeaderFormat.STRING;
+
+        /**
+         * 最低吞吐，条/秒，0：不检查
+         */
+        long minRate = 0L;
+
+        /**
+         * 最高 p99 批次耗时，毫秒，0：不检查
+         */
+        double maxP99 = 0.0;
+
+        static Config parse(String[] args) {
+            Config c = new Config();
+
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                    throw new IllegalArgumentException("argument must be --name=value, arg: " + arg);
+                }
+
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+
+                switch (name) {
+                    case "rate":
+                        c.rate = Long.parseLong(value);
+                        break;
+                    case "duration":
+                        c.duration = Long.parseLong(value);
+                        break;
+                    case "warmup":
+                        c.warmup = Long.parseLong(value);
+                        break;
+                    case "interval":
+                        c.interval = Long.parseLong(value);
+                        break;
+                    case "batchSize":
+                        c.batchSize = Integer.parseInt(value);
+                        break;
+                    case "partitions":
+                        c.partitions = Integer.parseInt(value);
+                        break;
+                    case "keys":
+                        c.keys = Integer.parseInt(value);
+                        break;
+                    case "keySkew":
+                        c.keySkew = Double.parseDouble(value);
+                        break;
+                    case "failureRate":
+                        c.failureRate = Double.parseDouble(value);
+                        break;
+                    case "payloadSize":
+                        c.payloadSize = Integer.parseInt(value);
+                        break;
+                    case "costMicros":
+                        c.costMicros = Long.parseLong(value);
+                        break;
+                    case "threadNum":
+                        c.threadNum = Integer.parseInt(value);
+                        break;
+                    case "dispatchMode":
+                        c.dispatchMode = KafkaDispatchMode.valueOf(value);
+                        break;
+                    case "chunkSize":
+                        c.chunkSize = Integer.parseInt(value);
+                        break;
+                    case "recordLog":
+                        c.recordLog = Boolean.parseBoolean(value);
+                        break;
+                    case "headerFormat":
+                        c.headerFormat = KafkaHeaderFormat.valueOf(value);
+                        break;
+                    case "minRate":
+                        c.minRate = Long.parseLong(value);
+                        break;
+                    case "maxP99":
+                        c.maxP99 = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown argument: " + name);
+                }
+            }
+
+            return c;
+        }
+
+        @Override
+        public String toString() {
+            return "rate=" + rate + ", duration=" + duration + "s, warmup=" + warmup + "s, batchSize=" + batchSize +
+                    ", partitions=" + partitions + ", keys=" + keys + ", keySkew=" + keySkew +
+                    ", failureRate=" + failureRate + ", payloadSize=" + payloadSize + ", costMicros=" + costMicros +
+                    ", threadNum=" + threadNum + ", dispatchMode=" + dispatchMode + ", chunkSize=" + chunkSize +
+                    ", recordLog=" + recordLog + ", headerFormat=" + headerFormat;
+        }
+
+    }
+
+}
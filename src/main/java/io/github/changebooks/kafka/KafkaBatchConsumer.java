@@ -8,10 +8,12 @@ import java.util.List;
 /**
  * 批量消费
  *
+ * @param <K> Key
+ * @param <V> Value
  * @author changebooks@qq.com
  */
 @FunctionalInterface
-public interface KafkaBatchConsumer {
+public interface KafkaBatchConsumer<K, V> {
     /**
      * 执行消费
      *
@@ -19,6 +21,6 @@ public interface KafkaBatchConsumer {
      * @param context 消费上下文
      * @return 消费成功提交消息？否则，消费失败等待重试，或抛出异常等待重试
      */
-    boolean consume(final List<ConsumerRecord<String, String>> records, @Nullable final KafkaBatchContext context);
+    boolean consume(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context);
 
 }
@@ -23,6 +23,18 @@ public interface KafkaBatchContext {
      */
     void addContext(KafkaContext context);
 
+    /**
+     * 新建并新增一个消费上下文
+     * 复用的实现，如：{@link KafkaBatchContextPool}，返回预分配的消费上下文
+     *
+     * @return 消费上下文
+     */
+    default KafkaContext newContext() {
+        KafkaContext context = new KafkaContext();
+        addContext(context);
+        return context;
+    }
+
     /**
      * 获取全部属性
      *
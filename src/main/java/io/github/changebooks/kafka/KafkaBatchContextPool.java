@@ -0,0 +1,209 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量消费上下文的对象池
+ * 每个批次借出一个批量消费上下文，批次结束后归还，批量消费上下文和预分配的消费上下文（按 max.poll.records）原地重置复用，不再分配
+ * 归还后、再次借出前，借出的批量消费上下文及其返回的消费上下文不可再使用，否则，抛出 IllegalStateException
+ * 再次借出后复用同一个对象，仍持有的引用读写的是下一个批次的数据，不可在批次结束后持有
+ * <pre>
+ * try (KafkaBatchContextPool.Lease context = pool.borrow()) {
+ *     batchListener.listenResult(records, context);
+ * }
+ * </pre>
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaBatchContextPool {
+    /**
+     * 每个批量消费上下文预分配的消费上下文个数，如：max.poll.records
+     */
+    private final int capacity;
+
+    /**
+     * 最多缓存的空闲个数，如：监听线程数
+     */
+    private final int maxIdle;
+
+    /**
+     * 空闲的批量消费上下文
+     */
+    private final Queue<Lease> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 空闲的个数
+     */
+    private final AtomicInteger idleNum = new AtomicInteger();
+
+    public KafkaBatchContextPool(int capacity, int maxIdle) {
+        Assert.isTrue(capacity >= 0, "capacity can't be less than 0");
+        Assert.isTrue(maxIdle > 0, "maxIdle must be greater than 0");
+
+        this.capacity = capacity;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * 借出一个批量消费上下文
+     *
+     * @return 批量消费上下文，用完后 {@link Lease#close()} 归还
+     */
+    public Lease borrow() {
+        Lease lease = idle.poll();
+        if (lease == null) {
+            return new Lease(this, capacity);
+        }
+
+        idleNum.decrementAndGet();
+        lease.released = false;
+        return lease;
+    }
+
+    /**
+     * 归还一个批量消费上下文
+     *
+     * @param lease 批量消费上下文，已清空
+     */
+    private void release(Lease lease) {
+        if (idleNum.incrementAndGet() <= maxIdle) {
+            idle.offer(lease);
+        } else {
+            idleNum.decrementAndGet();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * 借出的批量消费上下文，原地重置复用
+     * 归还后、再次借出前不可再使用，防止被持有的引用读写已归还的数据
+     */
+    public static final class Lease extends KafkaConcurrentBatchContext implements AutoCloseable {
+        /**
+         * 对象池
+         */
+        private final KafkaBatchContextPool pool;
+
+        /**
+         * 预分配的消费上下文
+         */
+        private final KafkaContext[] preallocated;
+
+        /**
+         * 已使用的预分配个数
+         */
+        private final AtomicInteger obtained = new AtomicInteger();
+
+        /**
+         * 已归还？
+         */
+        private volatile boolean released;
+
+        private Lease(KafkaBatchContextPool pool, int capacity) {
+            super(capacity);
+
+            this.pool = pool;
+            this.preallocated = new KafkaContext[capacity];
+            for (int i = 0; i < capacity; i++) {
+                preallocated[i] = new KafkaContext();
+            }
+        }
+
+        @Override
+        public List<KafkaContext> getContexts() {
+            check();
+            return super.getContexts();
+        }
+
+        @Override
+        public void addContext(KafkaContext context) {
+            check();
+            super.addContext(context);
+        }
+
+        @Override
+        public KafkaContext newContext() {
+            check();
+
+            int index = obtained.getAndIncrement();
+
+            KafkaContext context;
+            if (index < preallocated.length) {
+                context = preallocated[index];
+                context.obtain();
+            } else {
+                context = new KafkaContext();
+            }
+
+            super.addContext(context);
+            return context;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            check();
+            return super.getAttributes();
+        }
+
+        @Override
+        public Object getAttribute(String key) {
+            check();
+            return super.getAttribute(key);
+        }
+
+        @Override
+        public void setAttribute(String key, Object value) {
+            check();
+            super.setAttribute(key, value);
+        }
+
+        /**
+         * 归还，重复归还时忽略
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+
+                released = true;
+            }
+
+            clear();
+            pool.release(this);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+
+            int used = Math.min(obtained.getAndSet(0), preallocated.length);
+            for (int i = 0; i < used; i++) {
+                preallocated[i].release();
+            }
+        }
+
+        /**
+         * 已归还？抛出 IllegalStateException
+         */
+        private void check() {
+            Assert.state(!released, "context has been released");
+        }
+
+    }
+
+}
@@ -1,5 +1,6 @@
 package io.github.changebooks.kafka;
 
+import io.github.changebooks.log.LogTraceId;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,24 +9,55 @@ import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * 消息分页，并行消费
  * 总行数 / 线程数 = 每线程处理行数
  * 可以整除时，线程数 == 实际线程数，如：总行数 = 9 和 线程数 = 3，实际结果：实际线程数 = 3，每线程处理行数 = 3
  * 不能整除时，线程数 != 实际线程数，如：总行数 = 9 和 线程数 = 4，实际结果：实际线程数 = 3，每线程处理行数 = 3
+ * 按分区或按键分发时，同分区或同键的消息分到同一组，组内顺序消费，实际线程数不超过线程数
+ * 设置每块行数时，消息切分为小块放入共享队列，先完成的线程继续领取剩余的块，实际线程数 = MIN(线程数, 总块数)
+ * 默认调用线程参与消费，线程池只需执行 (实际线程数 - 1) 个任务，调用线程不会空等
+ * 设置重试策略时，分页消费失败后，在原线程内退避后重试，只重试失败的分页
+ * 感知线程池饱和时，按线程池的剩余容量或许可数计算分页，线程池已满时，由调用线程消费
+ * 设置已消费的消息时，重新投递的消息中，跳过已消费的消息
+ * 设置按键合并时，计算分页之前，同键的消息合并为一条，按原消息统计位移
+ * 设置死信策略时，重试后仍失败，二分失败的分页，无法消费的消息发送到死信主题，其余消息正常提交
  *
+ * @param <K> Key
+ * @param <V> Value
  * @author changebooks@qq.com
  */
-public class KafkaBatchListener {
+public class KafkaBatchListener<K, V> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaBatchListener.class);
 
+    /**
+     * 消费接口返回 false
+     */
+    private static final Throwable RETURN_FALSE = new IllegalStateException("consume returned false");
+
+    /**
+     * 重试等待时被中断或已取消，不隔离
+     */
+    private static final Throwable CANCELLED = new IllegalStateException("consume cancelled");
+
     /**
      * 执行线程
      */
@@ -34,7 +66,7 @@ public class KafkaBatchListener {
     /**
      * 消费接口
      */
-    private final KafkaBatchConsumer consumer;
+    private final KafkaBatchConsumer<K, V> consumer;
 
     /**
      * 线程数
@@ -42,7 +74,94 @@ public class KafkaBatchListener {
      */
     private int threadNum = 1;
 
-    public KafkaBatchListener(Executor executor, KafkaBatchConsumer consumer) {
+    /**
+     * 分发模式
+     */
+    private KafkaDispatchMode dispatchMode = KafkaDispatchMode.PAGE;
+
+    /**
+     * 每块行数
+     * 0：按线程数静态分页，否则：切分为小块，线程从共享队列领取
+     */
+    private int chunkSize = 0;
+
+    /**
+     * 调用线程参与消费？
+     */
+    private boolean callerRuns = true;
+
+    /**
+     * 超时时间，毫秒，0：一直等待
+     */
+    private long timeout = 0L;
+
+    /**
+     * max.poll.interval.ms，毫秒，未设置超时时间时，按它计算超时时间，0：不计算
+     */
+    private long maxPollInterval = 0L;
+
+    /**
+     * 超时取消后，等待执行线程响应中断的时间，毫秒
+     */
+    private long cancelTimeout = 1000L;
+
+    /**
+     * 复制全部日志上下文到执行线程？否则，只传递追溯id
+     */
+    private boolean copyLogContext = true;
+
+    /**
+     * 遍历消息时，逐条设置日志上下文？
+     */
+    private boolean recordLog = false;
+
+    /**
+     * 消费接口的日志，逐条设置日志上下文时，未开启 INFO 级别，不解码标头，空？总是解码
+     */
+    private Logger recordLogger;
+
+    /**
+     * 自适应线程数，空？使用固定的线程数
+     */
+    private KafkaConcurrencyLimit concurrencyLimit;
+
+    /**
+     * 线程池许可，空？不限制
+     * 多个监听共用一个线程池时，每个监听一个许可，防止一个监听占满线程池
+     */
+    private Semaphore permits;
+
+    /**
+     * 感知线程池饱和？按 {@link ThreadPoolExecutor} 的空闲线程数计算分页，不排队
+     */
+    private boolean saturationAware = false;
+
+    /**
+     * 已消费的消息，空？不跳过
+     */
+    private KafkaProcessedCache processedCache;
+
+    /**
+     * 按键合并，空？不合并
+     */
+    private KafkaKeyCompactor<K, V> keyCompactor;
+
+    /**
+     * 分页重试策略，空？不重试
+     */
+    private KafkaRetryPolicy retryPolicy;
+
+    /**
+     * 死信策略，空？不隔离无法消费的消息
+     */
+    private KafkaDeadLetterPolicy<K, V> deadLetterPolicy;
+
+    /**
+     * 批量消费指标
+     */
+    private KafkaBatchMetrics metrics = KafkaBatchMetrics.NONE;
+
+    public KafkaBatchListener(Executor executor, KafkaBatchConsumer<K, V> consumer) {
         Assert.notNull(executor, "executor can't be null");
         Assert.notNull(consumer, "consumer can't be null");
 
@@ -50,6 +169,23 @@ public class KafkaBatchListener {
         this.consumer = consumer;
     }
 
+    /**
+     * 每条消息一个任务，适用于每个任务一个线程的执行线程，如：{@link KafkaExecutors#newVirtualThreadPerTaskExecutor()}
+     * 复制全部日志上下文（追溯id、日志id、父id 等），每个任务一个副本，日志与批次的日志可关联
+     *
+     * @param executor 执行线程，每个任务一个线程
+     * @param consumer 消费接口
+     * @param <K>      Key
+     * @param <V>      Value
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public static <K, V> KafkaBatchListener<K, V> perRecord(Executor executor, KafkaBatchConsumer<K, V> consumer) {
+        return new KafkaBatchListener<>(executor, consumer)
+                .setThreadNum(Integer.MAX_VALUE)
+                .setChunkSize(1)
+                .setCallerRuns(false);
+    }
+
     /**
      * 计算分页，多线程消费
      *
@@ -57,25 +193,229 @@ public class KafkaBatchListener {
      * @param context 消费上下文
      * @return 消费成功提交消息？否则，消费失败等待重试
      */
-    public boolean listen(final List<ConsumerRecord<String, String>> records, @Nullable final KafkaBatchContext context) {
+    public boolean listen(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        return listenResult(records, context).isSuccess();
+    }
+
+    /**
+     * 计算分页，多线程消费
+     *
+     * @param records 消息列表
+     * @param context 消费上下文
+     * @return 批量消费结果，按分区提交连续消费成功的位移，只重试失败的消息
+     */
+    public KafkaBatchResult<K, V> listenResult(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
         if (records == null) {
             LOGGER.warn("listen warning, records can't be null");
-            return consume(null, context);
+            return toResult(null, consume(null, context));
         }
 
         if (records.isEmpty()) {
             LOGGER.warn("listen warning, records can't be empty");
-            return consume(records, context);
+            return toResult(records, consume(records, context));
+        }
+
+        if (processedCache != null) {
+            return executeUnprocessed(records, context);
+        }
+
+        return executeCompacted(records, context);
+    }
+
+    /**
+     * 跳过已消费的消息，消费剩余的消息
+     *
+     * @param records 消息列表，非空
+     * @param context 消费上下文
+     * @return 批量消费结果，已跳过的消息视为消费成功
+     */
+    private KafkaBatchResult<K, V> executeUnprocessed(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        List<ConsumerRecord<K, V>> unprocessed = processedCache.filter(records);
+        if (unprocessed == records) {
+            return executeCompacted(records, context);
+        }
+
+        metrics.onSkipped(records.size() - unprocessed.size());
+        if (unprocessed.isEmpty()) {
+            return KafkaBatchResult.success(records);
+        }
+
+        KafkaBatchResult<K, V> result = executeCompacted(unprocessed, context);
+        if (result.isSuccess()) {
+            return KafkaBatchResult.success(records);
+        } else {
+            return KafkaBatchResult.of(records, Collections.singletonList(result.getFailedRecords()));
+        }
+    }
+
+    /**
+     * 按键合并，消费合并后的消息
+     *
+     * @param records 消息列表，非空
+     * @param context 消费上下文
+     * @return 批量消费结果，按原消息统计，合并后的消息消费失败时，所覆盖的原消息全部视为失败
+     */
+    private KafkaBatchResult<K, V> executeCompacted(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        KafkaKeyCompactor<K, V> compactor = keyCompactor;
+        if (compactor == null) {
+            return executeLog(records, context);
+        }
+
+        Map<ConsumerRecord<K, V>, List<ConsumerRecord<K, V>>> groups = compactor.compact(records);
+        if (groups.size() == records.size()) {
+            return executeLog(records, context);
+        }
+
+        metrics.onCompacted(records.size() - groups.size());
+
+        KafkaBatchResult<K, V> result = executeLog(new ArrayList<>(groups.keySet()), context);
+        if (result.isSuccess()) {
+            markProcessed(records);
+            return KafkaBatchResult.success(records);
+        }
+
+        List<ConsumerRecord<K, V>> failedRecords = new ArrayList<>();
+        for (Map.Entry<ConsumerRecord<K, V>, List<ConsumerRecord<K, V>>> e : groups.entrySet()) {
+            if (result.isFailed(e.getKey())) {
+                failedRecords.addAll(e.getValue());
+            } else {
+                markProcessed(e.getValue());
+            }
+        }
+
+        return KafkaBatchResult.of(records, Collections.singletonList(failedRecords));
+    }
+
+    /**
+     * 计算分页，多线程消费
+     *
+     * @param records 消息列表，非空
+     * @param context 消费上下文
+     * @return 批量消费结果
+     */
+    private KafkaBatchResult<K, V> executeLog(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        if (!recordLog) {
+            return execute(records, context);
+        }
+
+        // 逐条设置日志上下文时，调用线程消费之后，恢复日志上下文
+        final Map<String, String> logContext = MDC.getCopyOfContextMap();
+        try {
+            return execute(records, context);
+        } finally {
+            if (logContext != null) {
+                MDC.setContextMap(logContext);
+            } else {
+                MDC.clear();
+            }
+        }
+    }
+
+    /**
+     * 计算分页，多线程消费
+     *
+     * @param records 消息列表，非空
+     * @param context 消费上下文
+     * @return 批量消费结果
+     */
+    private KafkaBatchResult<K, V> execute(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        long start = System.nanoTime();
+
+        long timeout = timeout();
+
+        int currentThreadNum = currentThreadNum();
+        if (permits != null || saturationAware) {
+            // 线程池的剩余容量 + 调用线程
+            int capacity = capacity() + (callerRuns && timeout <= 0 ? 1 : 0);
+            currentThreadNum = Math.max(Math.min(currentThreadNum, capacity), 1);
+        }
+
+        if (currentThreadNum <= 1 && concurrencyLimit == null && timeout <= 0) {
+            boolean success = consume(records, context, start, null);
+            long elapsed = System.nanoTime() - start;
+
+            metrics.onPage(records.size(), elapsed, success);
+            metrics.onBatch(records.size(), 1, elapsed);
+            return toResult(records, success);
+        }
+
+        List<List<ConsumerRecord<K, V>>> pageList = compute(records, currentThreadNum);
+        int workerNum = Math.min(currentThreadNum, pageList.size());
+        BatchTask task = dispatch(pageList, workerNum, context, timeout);
+        List<List<ConsumerRecord<K, V>>> failedPages = task.getFailedPages();
+
+        long elapsed = System.nanoTime() - start;
+        metrics.onBatch(records.size(), pageList.size(), elapsed);
+
+        if (concurrencyLimit != null) {
+            concurrencyLimit.onBatch(records.size(), workerNum, elapsed, failedPages.size(), task.queued.get());
+        }
+
+        return KafkaBatchResult.of(records, failedPages);
+    }
+
+    /**
+     * 按分发模式，计算分页
+     *
+     * @param records 消息列表
+     * @return 分页列表
+     */
+    public List<List<ConsumerRecord<K, V>>> compute(@NonNull final List<ConsumerRecord<K, V>> records) {
+        return compute(records, currentThreadNum());
+    }
+
+    /**
+     * 按分发模式，计算分页
+     *
+     * @param records   消息列表
+     * @param threadNum 线程数
+     * @return 分页列表
+     */
+    private List<List<ConsumerRecord<K, V>>> compute(final List<ConsumerRecord<K, V>> records, int threadNum) {
+        // 共享队列时，分组数 = MAX(线程数, 总块数)，先完成的线程继续领取剩余的组
+        int groupNum = chunkSize > 0 ? Math.max(threadNum, (records.size() + chunkSize - 1) / chunkSize) : threadNum;
+        groupNum = Math.max(Math.min(groupNum, records.size()), 1);
+
+        switch (dispatchMode) {
+            case PARTITION:
+                return PageUtils.group(records, groupNum, KafkaBatchListener::hashPartition);
+            case KEY:
+                return PageUtils.group(records, groupNum, KafkaBatchListener::hashKey);
+            default:
+                if (chunkSize > 0) {
+                    return PageUtils.page(records, chunkSize);
+                }
+
+                // IF records.size() = 9 AND threadNum = 3, RESULT pageList.size() = 3 AND pageList[0].size() = 3
+                // IF records.size() = 9 AND threadNum = 4, RESULT pageList.size() = 3 AND pageList[0].size() = 3
+                return PageUtils.compute(records, threadNum);
         }
+    }
+
+    /**
+     * 当前线程数
+     *
+     * @return 设置自适应线程数？返回 自适应线程数，否则，返回 线程数
+     */
+    private int currentThreadNum() {
+        return concurrencyLimit != null ? concurrencyLimit.getLimit() : threadNum;
+    }
 
-        if (threadNum <= 1) {
-            return consume(records, context);
+    /**
+     * 线程池的剩余容量
+     *
+     * @return MIN(剩余许可数, 最大线程数 - 活跃线程数 - 排队任务数)
+     */
+    private int capacity() {
+        int capacity = permits != null ? permits.availablePermits() : Integer.MAX_VALUE;
+
+        if (saturationAware && executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            int idle = pool.getMaximumPoolSize() - pool.getActiveCount() - pool.getQueue().size();
+            capacity = Math.min(capacity, idle);
         }
 
-        // IF records.size() = 9 AND threadNum = 3, RESULT pageList.size() = 3 AND pageList[0].size() = 3
-        // IF records.size() = 9 AND threadNum = 4, RESULT pageList.size() = 3 AND pageList[0].size() = 3
-        List<List<ConsumerRecord<String, String>>> pageList = PageUtils.compute(records, threadNum);
-        return asyncConsume(pageList, context);
+        return Math.max(capacity, 0);
     }
 
     /**
@@ -85,48 +425,173 @@ public class KafkaBatchListener {
      * @param context  消费上下文
      * @return 全部线程消费成功提交消息？否则，任一线程消费失败等待重试
      */
-    public boolean asyncConsume(@NonNull final List<List<ConsumerRecord<String, String>>> pageList, @Nullable final KafkaBatchContext context) {
-        int size = pageList.size();
-        if (size <= 0) {
+    public boolean asyncConsume(@NonNull final List<List<ConsumerRecord<K, V>>> pageList, @Nullable final KafkaBatchContext context) {
+        if (pageList.isEmpty()) {
             return consume(null, context);
         }
 
-        if (size == 1) {
-            return consume(pageList.get(0), context);
+        return dispatch(pageList, pageList.size(), context, timeout()).getFailedPages().isEmpty();
+    }
+
+    /**
+     * 多线程消费
+     * 每个线程从共享队列依次领取分页，直到全部分页领取完毕
+     * 超过超时时间？取消未完成的分页，中断执行线程，未完成的分页视为消费失败
+     * 取消后，最多再等待 cancelTimeout，仍未结束的线程继续运行，直到消费接口响应中断，不影响本次返回的结果
+     * 许可不足或线程池拒绝时，不再提交，由调用线程消费剩余的分页
+     * 设置超时时间时，超过截止时间后，调用线程和线程池线程都不再领取分页，未领取的分页视为消费失败
+     *
+     * @param pageList  分页列表，非空
+     * @param workerNum 实际线程数
+     * @param context   消费上下文
+     * @param timeout   超时时间，毫秒，0：一直等待
+     * @return 消费任务，含消费失败的分页列表、本批次排队的任务数
+     */
+    private BatchTask dispatch(final List<List<ConsumerRecord<K, V>>> pageList,
+                               int workerNum,
+                               @Nullable final KafkaBatchContext context,
+                               long timeout) {
+        final BatchTask task = new BatchTask(pageList, context, timeout);
+
+        // 设置超时时间时，调用线程不参与消费，只等待，防止调用线程卡在一个分页上
+        boolean callerRuns = this.callerRuns && timeout <= 0;
+
+        if (workerNum <= 1 && timeout <= 0) {
+            task.drain();
+            task.isolate();
+            return task;
+        }
+
+        // 调用线程参与消费时，线程池只需执行 (实际线程数 - 1) 个任务
+        int poolNum = callerRuns ? workerNum - 1 : Math.max(workerNum, 1);
+
+        final CountDownLatch lock = new CountDownLatch(poolNum);
+        final Map<String, String> logContext = copyLogContext ? MDC.getCopyOfContextMap() : null;
+        final String traceId = copyLogContext ? null : LogTraceId.get();
+
+        int w = 0;
+        for (; w < poolNum; w++) {
+            if (!submit(task, w, lock, logContext, traceId)) {
+                break;
+            }
+        }
+
+        // 许可不足或线程池拒绝，调用线程消费剩余的分页
+        if (w < poolNum) {
+            metrics.onRejected(poolNum - w);
+            for (; w < poolNum; w++) {
+                lock.countDown();
+            }
+
+            callerRuns = true;
+        }
+
+        if (callerRuns) {
+            task.drain();
         }
 
-        final AtomicBoolean result = new AtomicBoolean(true);
+        try {
+            if (lock.getCount() > 0) {
+                long start = System.nanoTime();
+
+                if (timeout > 0) {
+                    // 调用线程消费剩余的分页后，只等待截止时间之前的剩余时间
+                    if (!lock.await(Math.max(task.deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS)) {
+                        LOGGER.error("asyncConsume failed, timeout: {}ms, pageList.size: {}", timeout, pageList.size());
+                        task.cancel();
 
-        final CountDownLatch lock = new CountDownLatch(size);
-        final Map<String, String> logContext = MDC.getCopyOfContextMap();
+                        // 等待执行线程响应中断，防止返回后仍在消费
+                        if (!lock.await(cancelTimeout, TimeUnit.MILLISECONDS)) {
+                            LOGGER.error("asyncConsume failed, workers not interrupted, cancelTimeout: {}ms, running: {}", cancelTimeout, lock.getCount());
+                        }
+                    }
+                } else {
+                    lock.await();
+                }
+
+                metrics.onAwait(System.nanoTime() - start);
+            }
+        } catch (InterruptedException tr) {
+            LOGGER.error("asyncConsume failed, throwable: ", tr);
+            task.cancel();
+            Thread.currentThread().interrupt();
+        }
+
+        // 截止时仍未开始的任务，同样视为排队
+        task.queued.addAndGet((int) lock.getCount());
+
+        task.isolate();
+        return task;
+    }
+
+    /**
+     * 提交一个线程池任务
+     *
+     * @param task       消费任务
+     * @param worker     任务序号
+     * @param lock       任务完成时减一
+     * @param logContext 日志上下文
+     * @param traceId    追溯id
+     * @return 已提交？许可不足或线程池拒绝，返回 false
+     */
+    private boolean submit(final BatchTask task,
+                           final int worker,
+                           final CountDownLatch lock,
+                           @Nullable final Map<String, String> logContext,
+                           @Nullable final String traceId) {
+        final Semaphore permits = this.permits;
+        if (permits != null && !permits.tryAcquire()) {
+            return false;
+        }
+
+        final long submitted = System.nanoTime();
 
-        for (List<ConsumerRecord<String, String>> records : pageList) {
+        try {
             executor.execute(() -> {
                 try {
+                    metrics.onQueue(System.nanoTime() - submitted);
+
                     if (logContext != null) {
                         MDC.setContextMap(logContext);
+                    } else if (traceId != null) {
+                        LogTraceId.set(traceId);
                     }
 
-                    if (!consume(records, context)) {
-                        result.set(false);
-                    }
+                    task.register(worker);
+                    task.onStart();
+                    task.drain();
                 } finally {
+                    task.unregister(worker);
                     lock.countDown();
 
-                    if (logContext != null) {
+                    if (permits != null) {
+                        permits.release();
+                    }
+
+                    if (logContext != null || traceId != null || recordLog) {
                         MDC.clear();
                     }
                 }
             });
-        }
 
-        try {
-            lock.await();
-        } catch (InterruptedException tr) {
-            LOGGER.error("asyncConsume failed, throwable: ", tr);
+            return true;
+        } catch (RejectedExecutionException tr) {
+            if (permits != null) {
+                permits.release();
+            }
+
+            return false;
         }
+    }
 
-        return result.get();
+    /**
+     * 逐条设置日志上下文？
+     *
+     * @param records 消息列表
+     * @return 逐条设置日志上下文？返回 {@link KafkaLogPage}，否则，返回 消息列表
+     */
+    private List<ConsumerRecord<K, V>> logPage(List<ConsumerRecord<K, V>> records) {
+        return recordLog ? new KafkaLogPage<>(records, recordLogger) : records;
     }
 
     /**
@@ -136,39 +601,815 @@ public class KafkaBatchListener {
      * @param context 消费上下文
      * @return 消费成功提交消息？否则，消费失败等待重试
      */
-    public boolean consume(final List<ConsumerRecord<String, String>> records, @Nullable final KafkaBatchContext context) {
+    public boolean consume(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
         try {
-            return consumer.consume(records, context);
+            if (consumer.consume(records, context)) {
+                return true;
+            }
+
+            metrics.onFailure(null);
+            return false;
         } catch (Throwable tr) {
             LOGGER.error("consume failed, throwable: ", tr);
+            metrics.onFailure(tr);
             return false;
         }
     }
 
-    public Executor getExecutor() {
-        return executor;
+    /**
+     * 执行消费，失败时，按重试策略在当前线程退避后重试，仍失败时，按死信策略隔离无法消费的消息
+     *
+     * @param records 消息列表
+     * @param context 消费上下文
+     * @param start   批次开始时间，纳秒
+     * @param task    消费任务，已取消？不再重试
+     * @return 消费成功，或无法消费的消息已发送到死信主题？
+     */
+    private boolean consume(final List<ConsumerRecord<K, V>> records,
+                            @Nullable final KafkaBatchContext context,
+                            long start,
+                            @Nullable final BatchTask task) {
+        Throwable failure = retry(records, context, start, task);
+        if (failure == null) {
+            return true;
+        }
+
+        if (failure == CANCELLED) {
+            return false;
+        }
+
+        return isolate(records, context, failure != RETURN_FALSE ? failure : null, true, task);
     }
 
-    public KafkaBatchConsumer getConsumer() {
-        return consumer;
+    /**
+     * 执行消费，失败时，按重试策略在当前线程退避后重试
+     *
+     * @param records 消息列表
+     * @param context 消费上下文
+     * @param start   批次开始时间，纳秒
+     * @param task    消费任务，已取消？不再重试
+     * @return 成功？返回 空；被中断或已取消？返回 {@link #CANCELLED}；否则，返回 异常 或 {@link #RETURN_FALSE}
+     */
+    private Throwable retry(final List<ConsumerRecord<K, V>> records,
+                            @Nullable final KafkaBatchContext context,
+                            long start,
+                            @Nullable final BatchTask task) {
+        List<ConsumerRecord<K, V>> page = logPage(records);
+
+        for (int attempts = 1; ; attempts++) {
+            Throwable failure = tryConsume(page, context);
+            if (failure == null) {
+                markProcessed(records);
+
+                KafkaDeadLetterPolicy<K, V> deadLetter = deadLetterPolicy;
+                if (deadLetter != null) {
+                    deadLetter.onSuccess();
+                }
+
+                return null;
+            }
+
+            KafkaRetryPolicy policy = retryPolicy;
+            if (policy == null || isCancelled(task)) {
+                onFailure(failure);
+                return failure;
+            }
+
+            long backoff = policy.backoff(attempts);
+            if (!policy.canRetry(attempts, failure != RETURN_FALSE ? failure : null, System.nanoTime() - start, backoff)) {
+                onFailure(failure);
+                return failure;
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException tr) {
+                Thread.currentThread().interrupt();
+                onFailure(failure);
+                return CANCELLED;
+            }
+
+            if (isCancelled(task)) {
+                onFailure(failure);
+                return CANCELLED;
+            }
+
+            metrics.onRetry(attempts);
+        }
     }
 
-    public int getThreadNum() {
-        return threadNum;
+    /**
+     * 执行一次消费，不记录失败次数，每页重试结束后只记录一次
+     *
+     * @param records 消息列表
+     * @param context 消费上下文
+     * @return 成功？返回 空，否则，返回 异常 或 {@link #RETURN_FALSE}
+     */
+    private Throwable tryConsume(final List<ConsumerRecord<K, V>> records, @Nullable final KafkaBatchContext context) {
+        try {
+            if (consumer.consume(records, context)) {
+                return null;
+            }
+
+            return RETURN_FALSE;
+        } catch (Throwable tr) {
+            LOGGER.error("consume failed, throwable: ", tr);
+            return tr;
+        }
     }
 
     /**
-     * 设置线程数
-     * 实际线程数 = CEIL(总行数 / CEIL(总行数 / 线程数))
+     * 记录一页消费失败
      *
-     * @param threadNum 线程数，线程数 小于 (线程池最大线程数 - 1)
-     * @return the {@link KafkaBatchListener} instance
+     * @param failure 最后一次消费的异常 或 {@link #RETURN_FALSE}
      */
-    public KafkaBatchListener setThreadNum(int threadNum) {
-        Assert.isTrue(threadNum > 0, "threadNum must be greater than 0");
+    private void onFailure(Throwable failure) {
+        metrics.onFailure(failure != RETURN_FALSE ? failure : null);
+    }
+
+    /**
+     * 隔离无法消费的消息
+     * 累计失败次数达到上限时，二分失败的分页，逐段重新消费，找出无法消费的消息，发送到死信主题
+     * 无法消费的消息比例达到 {@link KafkaDeadLetterPolicy#getOutageRatio()} 时，视为下游不可用，不发送死信
+     *
+     * @param records 消费失败的分页
+     * @param context 消费上下文
+     * @param cause       异常，空？消费接口返回 false
+     * @param checkOutage 判断下游是否可用？按整个批次已判断时，不再按分页判断
+     * @param task        消费任务，已取消？不再隔离
+     * @return 其余消息消费成功，且无法消费的消息已发送到死信主题？
+     */
+    private boolean isolate(final List<ConsumerRecord<K, V>> records,
+                            @Nullable final KafkaBatchContext context,
+                            @Nullable Throwable cause,
+                            boolean checkOutage,
+                            @Nullable final BatchTask task) {
+        KafkaDeadLetterPolicy<K, V> policy = deadLetterPolicy;
+        if (policy == null || isCancelled(task) || !policy.onFailure(records)) {
+            return false;
+        }
+
+        // 下游不可用期间，不二分查找
+        if (checkOutage && policy.isInOutage()) {
+            LOGGER.error("isolate failed, downstream outage, records.size: {}", records.size());
+            return false;
+        }
+
+        Map<ConsumerRecord<K, V>, Throwable> poison = new LinkedHashMap<>();
+        if (records.size() == 1) {
+            poison.put(records.get(0), cause);
+        } else if (!bisect(records, context, poison, task)) {
+            return false;
+        }
+
+        if (checkOutage && policy.isOutage(poison.size(), records.size())) {
+            LOGGER.error("isolate failed, downstream outage, poison.size: {}, records.size: {}", poison.size(), records.size());
+            return false;
+        }
+
+        for (Map.Entry<ConsumerRecord<K, V>, Throwable> e : poison.entrySet()) {
+            if (!policy.publish(e.getKey(), e.getValue())) {
+                return false;
+            }
+        }
+
+        policy.onIsolated(records);
+        markProcessed(records);
+        return true;
+    }
+
+    /**
+     * 二分查找无法消费的消息
+     * 每段按 {@link PageUtils#page(List, int)} 切分为两半，逐半重新消费，失败的一半继续切分，直到单条消息
+     *
+     * @param records 消费失败的分页
+     * @param context 消费上下文
+     * @param poison  无法消费的消息及其异常
+     * @param task    消费任务，已取消？停止查找
+     * @return 查找完成？
+     */
+    private boolean bisect(final List<ConsumerRecord<K, V>> records,
+                           @Nullable final KafkaBatchContext context,
+                           final Map<ConsumerRecord<K, V>, Throwable> poison,
+                           @Nullable final BatchTask task) {
+        for (List<ConsumerRecord<K, V>> half : PageUtils.page(records, (records.size() + 1) / 2)) {
+            if (isCancelled(task) || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+
+            Throwable failure = tryConsume(logPage(half), context);
+            if (failure == null) {
+                markProcessed(half);
+                continue;
+            }
+
+            if (half.size() == 1) {
+                poison.put(half.get(0), failure != RETURN_FALSE ? failure : null);
+            } else if (!bisect(half, context, poison, task)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 记录已消费的消息
+     *
+     * @param records 消费成功的消息列表
+     */
+    private void markProcessed(final List<ConsumerRecord<K, V>> records) {
+        KafkaProcessedCache cache = processedCache;
+        if (cache != null) {
+            cache.markAll(records);
+        }
+    }
+
+    /**
+     * 已取消，或超过截止时间？
+     *
+     * @param task 消费任务
+     * @return 已取消？
+     */
+    private static boolean isCancelled(@Nullable KafkaBatchListener<?, ?>.BatchTask task) {
+        return task != null && (task.cancelled || task.isExpired());
+    }
+
+    /**
+     * 转换为批量消费结果
+     *
+     * @param records 消息列表
+     * @param success 消费成功？
+     * @return 批量消费结果
+     */
+    private static <K, V> KafkaBatchResult<K, V> toResult(List<ConsumerRecord<K, V>> records, boolean success) {
+        return success ? KafkaBatchResult.success(records) : KafkaBatchResult.failure(records);
+    }
+
+    /**
+     * 分区的散列值
+     *
+     * @param record 消息
+     * @return 同主题、同分区的消息，散列值相同
+     */
+    private static int hashPartition(ConsumerRecord<?, ?> record) {
+        return 31 * record.topic().hashCode() + record.partition();
+    }
+
+    /**
+     * 键的散列值
+     *
+     * @param record 消息
+     * @return 同键的消息，散列值相同；键为空？取分区的散列值
+     */
+    private static int hashKey(ConsumerRecord<?, ?> record) {
+        Object key = record.key();
+        if (key == null) {
+            return hashPartition(record);
+        } else if (key instanceof byte[]) {
+            return Arrays.hashCode((byte[]) key);
+        } else {
+            return key.hashCode();
+        }
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public KafkaBatchConsumer<K, V> getConsumer() {
+        return consumer;
+    }
+
+    public int getThreadNum() {
+        return threadNum;
+    }
+
+    /**
+     * 设置线程数
+     * 实际线程数 = CEIL(总行数 / CEIL(总行数 / 线程数))
+     *
+     * @param threadNum 线程数，调用线程参与消费时，线程数 不大于 (线程池最大线程数 + 1)，否则，线程数 小于 (线程池最大线程数 - 1)
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setThreadNum(int threadNum) {
+        Assert.isTrue(threadNum > 0, "threadNum must be greater than 0");
 
         this.threadNum = threadNum;
         return this;
     }
 
+    public KafkaDispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * 设置分发模式
+     *
+     * @param dispatchMode 分发模式，需要保证同分区或同键顺序消费时，按分区或按键分发
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setDispatchMode(KafkaDispatchMode dispatchMode) {
+        Assert.notNull(dispatchMode, "dispatchMode can't be null");
+
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 设置每块行数
+     * 消息切分为小块放入共享队列，先完成的线程继续领取剩余的块，适用于单条消息耗时差异大的场景
+     *
+     * @param chunkSize 每块行数，0：按线程数静态分页
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize >= 0, "chunkSize can't be less than 0");
+
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public boolean isCallerRuns() {
+        return callerRuns;
+    }
+
+    /**
+     * 设置调用线程参与消费？
+     *
+     * @param callerRuns 调用线程参与消费？否则，全部分页提交线程池，调用线程等待
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setCallerRuns(boolean callerRuns) {
+        this.callerRuns = callerRuns;
+        return this;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * 设置超时时间
+     * 超时后，取消未完成的分页，中断执行线程，未完成的分页视为消费失败，避免超过 max.poll.interval.ms 触发再均衡
+     * 设置超时时间时，调用线程不参与消费，只等待
+     * 未设置时，按 max.poll.interval.ms 计算，见 {@link #setMaxPollInterval(long)}
+     *
+     * @param timeout 超时时间，毫秒，小于 max.poll.interval.ms，0：未设置 max.poll.interval.ms 时，一直等待
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setTimeout(long timeout) {
+        Assert.isTrue(timeout >= 0, "timeout can't be less than 0");
+
+        this.timeout = timeout;
+        return this;
+    }
+
+    public long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    /**
+     * 设置 max.poll.interval.ms
+     * 未设置超时时间时，超时时间 = max.poll.interval.ms * 80% - cancelTimeout，留出提交位移、再次拉取的时间
+     *
+     * @param maxPollInterval 消费者配置的 max.poll.interval.ms，毫秒，0：不计算超时时间
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setMaxPollInterval(long maxPollInterval) {
+        Assert.isTrue(maxPollInterval >= 0, "maxPollInterval can't be less than 0");
+
+        this.maxPollInterval = maxPollInterval;
+        return this;
+    }
+
+    public long getCancelTimeout() {
+        return cancelTimeout;
+    }
+
+    /**
+     * 设置超时取消后，等待执行线程响应中断的时间
+     * 消费接口不响应中断时（如：阻塞在不可中断的 IO 上），等待结束后，执行线程仍继续运行，不影响本次返回的结果
+     *
+     * @param cancelTimeout 等待时间，毫秒，0：不等待
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setCancelTimeout(long cancelTimeout) {
+        Assert.isTrue(cancelTimeout >= 0, "cancelTimeout can't be less than 0");
+
+        this.cancelTimeout = cancelTimeout;
+        return this;
+    }
+
+    /**
+     * 实际的超时时间
+     *
+     * @return 设置了超时时间？返回 超时时间，设置了 max.poll.interval.ms？按它计算，否则，返回 0
+     */
+    private long timeout() {
+        if (timeout > 0 || maxPollInterval <= 0) {
+            return timeout;
+        }
+
+        return Math.max(maxPollInterval / 5 * 4 - cancelTimeout, 1L);
+    }
+
+    public boolean isCopyLogContext() {
+        return copyLogContext;
+    }
+
+    /**
+     * 设置复制全部日志上下文到执行线程？
+     *
+     * @param copyLogContext 复制全部日志上下文？否则，只传递追溯id，每个线程少复制一次日志上下文
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setCopyLogContext(boolean copyLogContext) {
+        this.copyLogContext = copyLogContext;
+        return this;
+    }
+
+    public boolean isRecordLog() {
+        return recordLog;
+    }
+
+    /**
+     * 设置遍历消息时，逐条设置日志上下文？
+     * 每条消息按自己的标头设置追溯id和日志id，不再共用拉取线程中首条消息的日志上下文
+     *
+     * @param recordLog 逐条设置日志上下文？
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setRecordLog(boolean recordLog) {
+        this.recordLog = recordLog;
+        return this;
+    }
+
+    public Logger getRecordLogger() {
+        return recordLogger;
+    }
+
+    /**
+     * 设置消费接口的日志
+     * 逐条设置日志上下文时，日志未开启 INFO 级别，不解码标头，不修改日志上下文
+     *
+     * @param recordLogger 消费接口的日志，空？总是解码
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setRecordLogger(Logger recordLogger) {
+        this.recordLogger = recordLogger;
+        return this;
+    }
+
+    public KafkaConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * 设置自适应线程数
+     * 每批次按耗时、失败页数、线程池排队调整线程数，替代固定的线程数
+     *
+     * @param concurrencyLimit 自适应线程数，空？使用固定的线程数
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setConcurrencyLimit(@Nullable KafkaConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        return this;
+    }
+
+    public KafkaProcessedCache getProcessedCache() {
+        return processedCache;
+    }
+
+    /**
+     * 设置已消费的消息
+     * 批次部分失败、重新投递时，跳过已消费成功的消息，减少重复消费
+     *
+     * @param processedCache 已消费的消息，空？不跳过
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setProcessedCache(@Nullable KafkaProcessedCache processedCache) {
+        this.processedCache = processedCache;
+        return this;
+    }
+
+    public KafkaKeyCompactor<K, V> getKeyCompactor() {
+        return keyCompactor;
+    }
+
+    /**
+     * 设置按键合并
+     * 同键的多次更新只消费合并后的一条，如：实体快照，减少下游的重复写入
+     *
+     * @param keyCompactor 按键合并，如：{@link KafkaKeyCompactor#lastWriteWins()}，空？不合并
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setKeyCompactor(@Nullable KafkaKeyCompactor<K, V> keyCompactor) {
+        this.keyCompactor = keyCompactor;
+        return this;
+    }
+
+    public KafkaRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 设置分页重试策略
+     * 分页消费失败后，在原线程内退避后重试，其它分页的结果不受影响，减少整批重新拉取
+     * 重试时，使用同一个消费上下文，消费接口需要幂等
+     *
+     * @param retryPolicy 分页重试策略，空？不重试
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setRetryPolicy(@Nullable KafkaRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public KafkaDeadLetterPolicy<K, V> getDeadLetterPolicy() {
+        return deadLetterPolicy;
+    }
+
+    /**
+     * 设置死信策略
+     * 重试后仍失败，且累计失败次数达到上限时，二分失败的分页，无法消费的消息发送到死信主题，不再阻塞分区
+     *
+     * @param deadLetterPolicy 死信策略，空？不隔离
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setDeadLetterPolicy(@Nullable KafkaDeadLetterPolicy<K, V> deadLetterPolicy) {
+        this.deadLetterPolicy = deadLetterPolicy;
+        return this;
+    }
+
+    public Semaphore getPermits() {
+        return permits;
+    }
+
+    /**
+     * 设置线程池许可
+     * 多个监听共用一个线程池时，按配额为每个监听分配许可，如：线程池 16 个线程，两个监听各 8 个许可
+     * 每个线程池任务占用一个许可，许可不足时，由调用线程消费，按剩余许可数计算分页
+     *
+     * @param permits 线程池许可，空？不限制
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setPermits(@Nullable Semaphore permits) {
+        this.permits = permits;
+        return this;
+    }
+
+    public boolean isSaturationAware() {
+        return saturationAware;
+    }
+
+    /**
+     * 设置感知线程池饱和？
+     * 按 {@link ThreadPoolExecutor} 的 (最大线程数 - 活跃线程数 - 排队任务数) 计算分页，线程池已满时，由调用线程消费
+     *
+     * @param saturationAware 感知线程池饱和？
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setSaturationAware(boolean saturationAware) {
+        this.saturationAware = saturationAware;
+        return this;
+    }
+
+    public KafkaBatchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置批量消费指标
+     *
+     * @param metrics 批量消费指标，如：{@link MicrometerBatchMetrics}
+     * @return the {@link KafkaBatchListener} instance
+     */
+    public KafkaBatchListener<K, V> setMetrics(KafkaBatchMetrics metrics) {
+        Assert.notNull(metrics, "metrics can't be null");
+
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * 一个批次的消费任务
+     * 线程从共享队列依次领取分页，记录每页的消费结果，取消时，中断正在消费的线程
+     */
+    private final class BatchTask {
+        /**
+         * 待消费
+         */
+        static final int PENDING = 0;
+
+        /**
+         * 消费成功
+         */
+        static final int SUCCESS = 1;
+
+        /**
+         * 消费失败
+         */
+        static final int FAILURE = 2;
+
+        /**
+         * 分页列表
+         */
+        final List<List<ConsumerRecord<K, V>>> pageList;
+
+        /**
+         * 消费上下文
+         */
+        final KafkaBatchContext context;
+
+        /**
+         * 批次开始时间，纳秒
+         */
+        final long start = System.nanoTime();
+
+        /**
+         * 截止时间，纳秒，未设置超时时间？{@link Long#MAX_VALUE}
+         */
+        final long deadline;
+
+        /**
+         * 下一个待领取的分页
+         */
+        final AtomicInteger cursor = new AtomicInteger();
+
+        /**
+         * 每页的消费结果
+         */
+        final AtomicIntegerArray states;
+
+        /**
+         * 每页重试后仍失败的异常，全部分页结束后再隔离
+         */
+        final AtomicReferenceArray<Throwable> failures;
+
+        /**
+         * 正在消费的线程池线程，下标 = 任务序号
+         */
+        final Map<Integer, Thread> workers = new HashMap<>();
+
+        /**
+         * 排队的任务数：开始时分页已被领取完，或截止时仍未开始
+         */
+        final AtomicInteger queued = new AtomicInteger();
+
+        /**
+         * 已取消？
+         */
+        volatile boolean cancelled;
+
+        BatchTask(List<List<ConsumerRecord<K, V>>> pageList, @Nullable KafkaBatchContext context, long timeout) {
+            this.pageList = pageList;
+            this.context = context;
+            this.deadline = timeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+            this.states = new AtomicIntegerArray(pageList.size());
+            this.failures = new AtomicReferenceArray<>(pageList.size());
+        }
+
+        /**
+         * 从共享队列依次领取分页并消费，直到全部分页领取完毕，或已取消，或超过截止时间
+         */
+        void drain() {
+            int size = pageList.size();
+
+            int index;
+            while (!isCancelled(this) && (index = cursor.getAndIncrement()) < size) {
+                List<ConsumerRecord<K, V>> page = pageList.get(index);
+
+                long start = System.nanoTime();
+                Throwable failure = retry(page, context, this.start, this);
+                boolean success = failure == null;
+                metrics.onPage(page.size(), System.nanoTime() - start, success);
+
+                if (!success && failure != CANCELLED) {
+                    failures.set(index, failure);
+                }
+
+                states.set(index, success ? SUCCESS : FAILURE);
+            }
+        }
+
+        /**
+         * 全部分页结束后，隔离失败分页中无法消费的消息
+         * 按整个批次失败消息的比例判断下游是否可用，单条消息的分页同样适用，下游不可用时，不发送死信
+         */
+        void isolate() {
+            KafkaDeadLetterPolicy<K, V> policy = deadLetterPolicy;
+            if (policy == null || isCancelled(this)) {
+                return;
+            }
+
+            int total = 0;
+            int failed = 0;
+            for (int i = 0; i < states.length(); i++) {
+                int size = pageList.get(i).size();
+                total += size;
+
+                if (states.get(i) != SUCCESS) {
+                    failed += size;
+                }
+            }
+
+            if (failed == 0) {
+                return;
+            }
+
+            if (policy.isOutage(failed, total)) {
+                LOGGER.error("isolate failed, downstream outage, failed: {}, records.size: {}", failed, total);
+                return;
+            }
+
+            for (int i = 0; i < states.length(); i++) {
+                Throwable failure = failures.get(i);
+                if (failure == null || states.get(i) == SUCCESS) {
+                    continue;
+                }
+
+                if (KafkaBatchListener.this.isolate(pageList.get(i), context, failure != RETURN_FALSE ? failure : null, false, this)) {
+                    states.set(i, SUCCESS);
+                }
+            }
+        }
+
+        /**
+         * 线程池任务开始，分页已被领取完？说明任务在线程池排队，线程数超过实际可用的线程数
+         */
+        void onStart() {
+            if (cursor.get() >= pageList.size()) {
+                queued.incrementAndGet();
+            }
+        }
+
+        /**
+         * 超过截止时间？
+         *
+         * @return 已超时？
+         */
+        boolean isExpired() {
+            return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0L;
+        }
+
+        /**
+         * 登记当前线程，取消时中断
+         *
+         * @param worker 任务序号
+         */
+        synchronized void register(int worker) {
+            if (!cancelled) {
+                workers.put(worker, Thread.currentThread());
+            }
+        }
+
+        /**
+         * 注销当前线程，清除取消时设置的中断，不影响线程池的下一个任务
+         *
+         * @param worker 任务序号
+         */
+        void unregister(int worker) {
+            synchronized (this) {
+                workers.remove(worker);
+            }
+
+            if (cancelled) {
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * 取消：停止领取分页，中断正在消费的线程
+         */
+        synchronized void cancel() {
+            cancelled = true;
+
+            for (Thread t : workers.values()) {
+                t.interrupt();
+            }
+        }
+
+        /**
+         * 消费失败的分页，包括未完成的分页
+         *
+         * @return 消费失败的分页列表
+         */
+        List<List<ConsumerRecord<K, V>>> getFailedPages() {
+            List<List<ConsumerRecord<K, V>>> result = new ArrayList<>(0);
+            for (int i = 0; i < states.length(); i++) {
+                if (states.get(i) != SUCCESS) {
+                    result.add(pageList.get(i));
+                }
+            }
+
+            return result;
+        }
+
+    }
+
 }
@@ -0,0 +1,95 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * 批量消费指标
+ * 默认不记录，时间单位：纳秒
+ *
+ * @author changebooks@qq.com
+ */
+public interface KafkaBatchMetrics {
+    /**
+     * 不记录
+     */
+    KafkaBatchMetrics NONE = new KafkaBatchMetrics() {
+    };
+
+    /**
+     * 一个批次消费完成
+     *
+     * @param size    总行数
+     * @param pageNum 总页数
+     * @param elapsed 批次耗时
+     */
+    default void onBatch(int size, int pageNum, long elapsed) {
+    }
+
+    /**
+     * 一页消费完成
+     *
+     * @param size    行数
+     * @param elapsed 分页耗时
+     * @param success 消费成功？
+     */
+    default void onPage(int size, long elapsed, boolean success) {
+    }
+
+    /**
+     * 线程池任务开始执行
+     *
+     * @param wait 从提交到开始执行的排队时间
+     */
+    default void onQueue(long wait) {
+    }
+
+    /**
+     * 调用线程等待其它线程消费完成
+     *
+     * @param wait 等待时间
+     */
+    default void onAwait(long wait) {
+    }
+
+    /**
+     * 消费失败
+     * 每页重试结束后仍失败时，记录一次，重试中的失败不重复记录
+     *
+     * @param cause 异常，空？消费接口返回 false
+     */
+    default void onFailure(@Nullable Throwable cause) {
+    }
+
+    /**
+     * 分页退避后重试
+     *
+     * @param attempts 已消费次数
+     */
+    default void onRetry(int attempts) {
+    }
+
+    /**
+     * 许可不足或线程池拒绝，由调用线程消费
+     *
+     * @param taskNum 未提交的任务数
+     */
+    default void onRejected(int taskNum) {
+    }
+
+    /**
+     * 跳过已消费的消息
+     *
+     * @param size 跳过的行数
+     */
+    default void onSkipped(int size) {
+    }
+
+    /**
+     * 按键合并
+     *
+     * @param size 合并掉的行数
+     */
+    default void onCompacted(int size) {
+    }
+
+}
@@ -0,0 +1,248 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量消费结果
+ * 按分区统计连续消费成功的位移，只重试失败的消息
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public final class KafkaBatchResult<K, V> {
+    /**
+     * 消息列表
+     */
+    private final List<ConsumerRecord<K, V>> records;
+
+    /**
+     * 消费失败的消息，按引用比较
+     */
+    private final Set<ConsumerRecord<K, V>> failedRecords;
+
+    /**
+     * 全部消费成功？
+     */
+    private final boolean success;
+
+    /**
+     * 首条失败消息的下标，延迟计算
+     */
+    private int index = -1;
+
+    /**
+     * 待提交的位移，延迟计算
+     */
+    private Map<TopicPartition, OffsetAndMetadata> offsets;
+
+    private KafkaBatchResult(List<ConsumerRecord<K, V>> records, Set<ConsumerRecord<K, V>> failedRecords, boolean success) {
+        this.records = records != null ? records : Collections.emptyList();
+        this.failedRecords = failedRecords;
+        this.success = success;
+    }
+
+    /**
+     * 全部消费成功
+     *
+     * @param records 消息列表
+     * @param <K>     Key
+     * @param <V>     Value
+     * @return 批量消费结果
+     */
+    public static <K, V> KafkaBatchResult<K, V> success(List<ConsumerRecord<K, V>> records) {
+        return new KafkaBatchResult<>(records, Collections.emptySet(), true);
+    }
+
+    /**
+     * 全部消费失败
+     *
+     * @param records 消息列表
+     * @param <K>     Key
+     * @param <V>     Value
+     * @return 批量消费结果
+     */
+    public static <K, V> KafkaBatchResult<K, V> failure(List<ConsumerRecord<K, V>> records) {
+        Set<ConsumerRecord<K, V>> failedRecords = newIdentitySet();
+        if (records != null) {
+            failedRecords.addAll(records);
+        }
+
+        return new KafkaBatchResult<>(records, failedRecords, false);
+    }
+
+    /**
+     * 部分页消费失败
+     *
+     * @param records     消息列表
+     * @param failedPages 消费失败的分页列表
+     * @param <K>         Key
+     * @param <V>         Value
+     * @return 批量消费结果
+     */
+    public static <K, V> KafkaBatchResult<K, V> of(List<ConsumerRecord<K, V>> records, List<List<ConsumerRecord<K, V>>> failedPages) {
+        Assert.notNull(failedPages, "failedPages can't be null");
+
+        if (failedPages.isEmpty()) {
+            return success(records);
+        }
+
+        Set<ConsumerRecord<K, V>> failedRecords = newIdentitySet();
+        for (List<ConsumerRecord<K, V>> page : failedPages) {
+            if (page != null) {
+                failedRecords.addAll(page);
+            }
+        }
+
+        return new KafkaBatchResult<>(records, failedRecords, false);
+    }
+
+    /**
+     * 全部消费成功？
+     *
+     * @return 全部消费成功提交消息？否则，按分区提交连续消费成功的位移，重试其余消息
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 消费失败？
+     *
+     * @param record 消息
+     * @return 消息所在的分页消费失败？
+     */
+    public boolean isFailed(ConsumerRecord<K, V> record) {
+        return failedRecords.contains(record);
+    }
+
+    /**
+     * 首条失败消息的下标
+     * 下标之前的消息全部消费成功，适用 {@link Acknowledgment#nack(int, Duration)}
+     *
+     * @return 全部消费成功？返回 消息总数
+     */
+    public int getIndex() {
+        if (index < 0) {
+            index = computeIndex();
+        }
+
+        return index;
+    }
+
+    /**
+     * 消费失败的消息列表
+     *
+     * @return 按原有顺序
+     */
+    public List<ConsumerRecord<K, V>> getFailedRecords() {
+        if (failedRecords.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<ConsumerRecord<K, V>> result = new ArrayList<>(failedRecords.size());
+        for (ConsumerRecord<K, V> r : records) {
+            if (failedRecords.contains(r)) {
+                result.add(r);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 待提交的位移
+     * 每个分区，连续消费成功的最大位移 + 1，首条消息消费失败的分区不提交
+     *
+     * @return 分区和位移
+     */
+    public Map<TopicPartition, OffsetAndMetadata> getOffsets() {
+        if (offsets == null) {
+            offsets = computeOffsets();
+        }
+
+        return offsets;
+    }
+
+    /**
+     * 提交消息
+     * 全部消费成功？提交全部消息，否则，提交首条失败消息之前的消息，其余消息休眠后重新拉取
+     *
+     * @param ack   确认
+     * @param sleep 休眠时间
+     */
+    public void acknowledge(Acknowledgment ack, Duration sleep) {
+        Assert.notNull(ack, "ack can't be null");
+        Assert.notNull(sleep, "sleep can't be null");
+
+        if (success) {
+            ack.acknowledge();
+        } else {
+            ack.nack(getIndex(), sleep);
+        }
+    }
+
+    public List<ConsumerRecord<K, V>> getRecords() {
+        return records;
+    }
+
+    private int computeIndex() {
+        if (failedRecords.isEmpty()) {
+            return success ? records.size() : 0;
+        }
+
+        int i = 0;
+        for (ConsumerRecord<K, V> r : records) {
+            if (failedRecords.contains(r)) {
+                return i;
+            }
+
+            i++;
+        }
+
+        return i;
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> computeOffsets() {
+        if (!success && failedRecords.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+        Set<TopicPartition> blocked = new HashSet<>();
+
+        for (ConsumerRecord<K, V> r : records) {
+            if (r == null) {
+                continue;
+            }
+
+            TopicPartition partition = new TopicPartition(r.topic(), r.partition());
+            if (failedRecords.contains(r)) {
+                blocked.add(partition);
+            } else if (!blocked.contains(partition)) {
+                result.put(partition, new OffsetAndMetadata(r.offset() + 1));
+            }
+        }
+
+        return result;
+    }
+
+    private static <K, V> Set<ConsumerRecord<K, V>> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+}
@@ -0,0 +1,693 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.Assert;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * 批量发送
+ * 不阻塞发送，合并每条消息的发送结果为一个 {@link CompletableFuture}
+ * 按 buffer.memory 限制未完成消息的总字节数，超过时阻塞调用方，最多 max.block.ms
+ * <p>
+ * 批量发送 {@link #send(List)}：每个批次只读取一次日志上下文，设置每条消息的标头
+ * 累积发送 {@link #add(ProducerRecord)}：新增时读取调用方的追溯id和日志id，行数、字节数或等待时间，任一达到上限时发送
+ * 发送时，替换消息已有的日志标头，每条消息新建标头，不共用；日志上下文设置为每条消息的日志信息，
+ * 同时配置 {@link LogProducerInterceptor} 时，拦截器写入相同的 id，不重复新增
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaBatchSender<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaBatchSender.class);
+
+    /**
+     * 每条消息的额外字节数，如：位移、时间戳、长度
+     */
+    public static final int RECORD_OVERHEAD = 64;
+
+    /**
+     * 不支持估算的键或值，默认的字节数
+     */
+    public static final int UNKNOWN_SIZE = 1024;
+
+    /**
+     * 发送模板
+     */
+    private final KafkaTemplate<K, V> template;
+
+    /**
+     * 未完成消息的总字节数上限，如：buffer.memory
+     */
+    private final int bufferMemory;
+
+    /**
+     * 剩余可用的字节数
+     */
+    private final Semaphore memory;
+
+    /**
+     * 累积发送的定时器，等待时间达到上限时，发送累积中的消息
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 字节数不足时，最多阻塞的毫秒数，如：max.block.ms
+     */
+    private long maxBlockMs = 60000L;
+
+    /**
+     * 累积发送的行数上限
+     */
+    private int batchSize = 500;
+
+    /**
+     * 累积发送的字节数上限，如：batch.size
+     */
+    private int batchBytes = 1048576;
+
+    /**
+     * 累积发送的等待毫秒数上限，首条消息累积开始计时
+     */
+    private long lingerMs = 5L;
+
+    /**
+     * 估算一条消息的字节数，空？按 {@link #estimate(ProducerRecord, int)} 估算
+     */
+    private ToIntFunction<ProducerRecord<K, V>> sizer;
+
+    /**
+     * 不支持估算的键或值的字节数
+     */
+    private int unknownSize = UNKNOWN_SIZE;
+
+    /**
+     * 日志标头格式
+     */
+    private KafkaHeaderFormat headerFormat = KafkaHeaderFormat.STRING;
+
+    /**
+     * 累积中的消息
+     */
+    private List<Pending<K, V>> pending = new ArrayList<>();
+
+    /**
+     * 累积中的字节数
+     */
+    private int pendingBytes;
+
+    /**
+     * 首条累积消息的时间，纳秒
+     */
+    private long pendingStart;
+
+    /**
+     * 累积批次的编号，防止定时器发送下一个批次
+     */
+    private long pendingGeneration;
+
+    /**
+     * 使用共用的守护线程定时器
+     *
+     * @param template     发送模板
+     * @param bufferMemory 未完成消息的总字节数上限，如：buffer.memory
+     */
+    public KafkaBatchSender(KafkaTemplate<K, V> template, long bufferMemory) {
+        this(template, bufferMemory, DefaultScheduler.INSTANCE);
+    }
+
+    public KafkaBatchSender(KafkaTemplate<K, V> template, long bufferMemory, ScheduledExecutorService scheduler) {
+        Assert.notNull(template, "template can't be null");
+        Assert.isTrue(bufferMemory > 0, "bufferMemory must be greater than 0");
+        Assert.notNull(scheduler, "scheduler can't be null");
+
+        this.template = template;
+        this.bufferMemory = (int) Math.min(bufferMemory, Integer.MAX_VALUE);
+        this.memory = new Semaphore(this.bufferMemory);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 批量发送
+     * 从当前线程的日志上下文读取一次日志信息，设置每条消息的标头
+     *
+     * @param records 消息列表
+     * @return 批量发送结果，全部消息完成时完成，不会异常完成
+     */
+    public CompletableFuture<KafkaSendResult<K, V>> send(List<ProducerRecord<K, V>> records) {
+        Assert.notNull(records, "records can't be null");
+
+        String traceId = KafkaTraceContext.traceIdOf(null);
+        String logId = KafkaTraceContext.logIdOf(null);
+
+        List<Pending<K, V>> batch = new ArrayList<>(records.size());
+        for (ProducerRecord<K, V> r : records) {
+            Assert.notNull(r, "record can't be null");
+            batch.add(new Pending<>(r, traceId, logId));
+        }
+
+        return sendAll(batch);
+    }
+
+    /**
+     * 累积发送
+     * 从当前线程的日志上下文读取追溯id和日志id，发送时设置消息的标头，定时器线程发送时不丢失
+     *
+     * @param record 消息
+     * @return 发送结果
+     */
+    public CompletableFuture<SendResult<K, V>> add(ProducerRecord<K, V> record) {
+        Assert.notNull(record, "record can't be null");
+
+        Headers headers = record.headers();
+        Pending<K, V> p = new Pending<>(record, KafkaTraceContext.traceIdOf(headers), KafkaTraceContext.logIdOf(headers));
+        int size = sizeOf(record);
+
+        List<Pending<K, V>> batch = null;
+        long generation = -1L;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (pending.isEmpty()) {
+                pendingStart = now;
+                pendingGeneration++;
+                generation = pendingGeneration;
+            }
+
+            pending.add(p);
+            pendingBytes += size;
+
+            if (pending.size() >= batchSize ||
+                    pendingBytes >= batchBytes ||
+                    now - pendingStart >= TimeUnit.MILLISECONDS.toNanos(lingerMs)) {
+                batch = drain();
+                generation = -1L;
+            }
+        }
+
+        if (batch != null) {
+            flush(batch);
+        } else if (generation >= 0L) {
+            schedule(generation);
+        }
+
+        return p.future;
+    }
+
+    /**
+     * 发送全部累积中的消息
+     */
+    public void flush() {
+        List<Pending<K, V>> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+
+        flush(batch);
+    }
+
+    /**
+     * 等待时间达到上限，发送累积中的消息
+     *
+     * @param generation 累积批次的编号
+     */
+    private void schedule(long generation) {
+        try {
+            scheduler.schedule(() -> {
+                List<Pending<K, V>> batch = null;
+                synchronized (this) {
+                    if (generation == pendingGeneration) {
+                        batch = drain();
+                    }
+                }
+
+                if (batch != null) {
+                    flush(batch);
+                }
+            }, lingerMs, TimeUnit.MILLISECONDS);
+        } catch (Throwable tr) {
+            LOGGER.error("schedule failed, throwable: ", tr);
+        }
+    }
+
+    /**
+     * 取出累积中的消息，调用方持有锁
+     *
+     * @return 累积中的消息
+     */
+    private List<Pending<K, V>> drain() {
+        List<Pending<K, V>> batch = pending;
+
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        pendingGeneration++;
+
+        return batch;
+    }
+
+    /**
+     * 发送一个累积批次，完成每条消息的发送结果
+     *
+     * @param batch 累积批次
+     */
+    private void flush(List<Pending<K, V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        sendAll(batch).thenAccept(result -> {
+            int size = result.size();
+            for (int i = 0; i < size; i++) {
+                Throwable tr = result.getException(i);
+                if (tr != null) {
+                    batch.get(i).future.completeExceptionally(tr);
+                } else {
+                    batch.get(i).future.complete(result.getResult(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * 不阻塞发送全部消息，合并发送结果
+     * 发送每条消息时，日志上下文设置为该消息的追溯id和日志id，发送后恢复
+     *
+     * @param batch 待发送的消息列表
+     * @return 批量发送结果
+     */
+    private CompletableFuture<KafkaSendResult<K, V>> sendAll(List<Pending<K, V>> batch) {
+        int size = batch.size();
+
+        List<ProducerRecord<K, V>> records = new ArrayList<>(size);
+        for (Pending<K, V> p : batch) {
+            records.add(p.record);
+        }
+
+        KafkaSendResult<K, V> result = new KafkaSendResult<>(records);
+        CompletableFuture<KafkaSendResult<K, V>> future = new CompletableFuture<>();
+
+        if (size == 0) {
+            future.complete(result);
+            return future;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(size);
+        Map<String, String> logContext = MDC.getCopyOfContextMap();
+
+        try {
+            for (int i = 0; i < size; i++) {
+                Pending<K, V> p = batch.get(i);
+                if (!Objects.equals(p.traceId, LogTraceId.get())) {
+                    LogTraceId.set(p.traceId);
+                }
+
+                if (!Objects.equals(p.logId, LogId.get())) {
+                    LogId.set(p.logId);
+                }
+
+                ProducerRecord<K, V> record = processLog(p.record, headerFormat);
+                records.set(i, record);
+
+                int index = i;
+                sendOne(record, (r, tr) -> {
+                    result.set(index, r, tr);
+                    if (remaining.decrementAndGet() == 0) {
+                        future.complete(result);
+                    }
+                });
+            }
+        } finally {
+            if (logContext != null) {
+                MDC.setContextMap(logContext);
+            } else {
+                MDC.clear();
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * 不阻塞发送一条消息，字节数不足时，阻塞等待
+     *
+     * @param record   消息
+     * @param callback 发送结果或失败原因
+     */
+    private void sendOne(ProducerRecord<K, V> record, BiConsumer<SendResult<K, V>, Throwable> callback) {
+        int permits = 0;
+        boolean acquired = false;
+
+        try {
+            permits = Math.min(Math.max(sizeOf(record), 1), bufferMemory);
+            if (!memory.tryAcquire(permits, maxBlockMs, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("buffer memory exhausted after " + maxBlockMs + " ms");
+            }
+
+            acquired = true;
+            ListenableFuture<SendResult<K, V>> f = template.send(record);
+            acquired = false;
+
+            int release = permits;
+            f.addCallback(
+                    r -> {
+                        memory.release(release);
+                        callback.accept(r, null);
+                    },
+                    tr -> {
+                        memory.release(release);
+                        callback.accept(null, tr);
+                    });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.accept(null, e);
+        } catch (Throwable tr) {
+            if (acquired) {
+                memory.release(permits);
+            }
+
+            LOGGER.error("sendOne failed, throwable: ", tr);
+            callback.accept(null, tr);
+        }
+    }
+
+    /**
+     * 设置消息的日志标头，替换已有的日志标头
+     * 只读标头，如：重新发送的消息，复制标头，新建消息
+     *
+     * @param record 消息
+     * @param format 标头格式
+     * @param <K>    Key
+     * @param <V>    Value
+     * @return 消息，复制标头时，返回新的消息
+     */
+    private static <K, V> ProducerRecord<K, V> processLog(ProducerRecord<K, V> record, KafkaHeaderFormat format) {
+        try {
+            KafkaTraceContext.onSend(record.headers(), format);
+
+            return record;
+        } catch (IllegalStateException tr) {
+            Headers headers = new RecordHeaders(record.headers().toArray());
+
+            KafkaTraceContext.onSend(headers, format);
+
+            return new ProducerRecord<>(
+                    record.topic(),
+                    record.partition(),
+                    record.timestamp(),
+                    record.key(),
+                    record.value(),
+                    headers);
+        }
+    }
+
+    /**
+     * 估算一条消息的字节数
+     *
+     * @param record 消息
+     * @return 字节数
+     */
+    private int sizeOf(ProducerRecord<K, V> record) {
+        ToIntFunction<ProducerRecord<K, V>> s = sizer;
+        return s != null ? s.applyAsInt(record) : estimate(record, unknownSize);
+    }
+
+    /**
+     * 估算一条消息的字节数
+     * 键和值支持 byte[]、{@link Bytes}、{@link String}（UTF-8 字节数），其它类型按 {@link #UNKNOWN_SIZE} 估算
+     *
+     * @param record 消息
+     * @param <K>    Key
+     * @param <V>    Value
+     * @return 字节数
+     */
+    public static <K, V> int estimate(ProducerRecord<K, V> record) {
+        return estimate(record, UNKNOWN_SIZE);
+    }
+
+    /**
+     * 估算一条消息的字节数
+     * 键和值支持 byte[]、{@link Bytes}、{@link String}（UTF-8 字节数），其它类型按 unknownSize 估算
+     *
+     * @param record      消息
+     * @param unknownSize 不支持估算的键或值的字节数
+     * @param <K>         Key
+     * @param <V>         Value
+     * @return 字节数
+     */
+    public static <K, V> int estimate(ProducerRecord<K, V> record, int unknownSize) {
+        int size = RECORD_OVERHEAD + sizeOf(record.key(), unknownSize) + sizeOf(record.value(), unknownSize);
+
+        for (Header h : record.headers()) {
+            size += Utils.utf8Length(h.key());
+
+            byte[] value = h.value();
+            if (value != null) {
+                size += value.length;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * 估算键或值的字节数
+     *
+     * @param o           键或值
+     * @param unknownSize 不支持估算的类型的字节数
+     * @return 字节数
+     */
+    private static int sizeOf(Object o, int unknownSize) {
+        if (o == null) {
+            return 0;
+        } else if (o instanceof byte[]) {
+            return ((byte[]) o).length;
+        } else if (o instanceof Bytes) {
+            return ((Bytes) o).get().length;
+        } else if (o instanceof String) {
+            return Utils.utf8Length((String) o);
+        } else {
+            return unknownSize;
+        }
+    }
+
+    public KafkaTemplate<K, V> getTemplate() {
+        return template;
+    }
+
+    public int getBufferMemory() {
+        return bufferMemory;
+    }
+
+    /**
+     * 剩余可用的字节数
+     *
+     * @return 字节数
+     */
+    public int getAvailableMemory() {
+        return memory.availablePermits();
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public long getMaxBlockMs() {
+        return maxBlockMs;
+    }
+
+    /**
+     * 设置字节数不足时，最多阻塞的毫秒数
+     *
+     * @param maxBlockMs 毫秒数，如：max.block.ms
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setMaxBlockMs(long maxBlockMs) {
+        Assert.isTrue(maxBlockMs >= 0L, "maxBlockMs can't be less than 0");
+
+        this.maxBlockMs = maxBlockMs;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 设置累积发送的行数上限
+     *
+     * @param batchSize 行数
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * 设置累积发送的字节数上限
+     *
+     * @param batchBytes 字节数
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setBatchBytes(int batchBytes) {
+        Assert.isTrue(batchBytes > 0, "batchBytes must be greater than 0");
+
+        this.batchBytes = batchBytes;
+        return this;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * 设置累积发送的等待毫秒数上限
+     *
+     * @param lingerMs 毫秒数
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setLingerMs(long lingerMs) {
+        Assert.isTrue(lingerMs >= 0L, "lingerMs can't be less than 0");
+
+        this.lingerMs = lingerMs;
+        return this;
+    }
+
+    public ToIntFunction<ProducerRecord<K, V>> getSizer() {
+        return sizer;
+    }
+
+    /**
+     * 设置估算一条消息的字节数
+     *
+     * @param sizer 估算函数，空？按 {@link #estimate(ProducerRecord, int)} 估算
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setSizer(ToIntFunction<ProducerRecord<K, V>> sizer) {
+        this.sizer = sizer;
+        return this;
+    }
+
+    public int getUnknownSize() {
+        return unknownSize;
+    }
+
+    /**
+     * 设置不支持估算的键或值的字节数，如：平均序列化后的字节数
+     *
+     * @param unknownSize 字节数
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setUnknownSize(int unknownSize) {
+        Assert.isTrue(unknownSize >= 0, "unknownSize can't be less than 0");
+
+        this.unknownSize = unknownSize;
+        return this;
+    }
+
+    public KafkaHeaderFormat getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * 设置日志标头格式
+     *
+     * @param headerFormat 标头格式
+     * @return the {@link KafkaBatchSender} instance
+     */
+    public KafkaBatchSender<K, V> setHeaderFormat(KafkaHeaderFormat headerFormat) {
+        Assert.notNull(headerFormat, "headerFormat can't be null");
+
+        this.headerFormat = headerFormat;
+        return this;
+    }
+
+    /**
+     * 累积中的消息
+     *
+     * @param <K> Key
+     * @param <V> Value
+     */
+    private static final class Pending<K, V> {
+        /**
+         * 消息
+         */
+        final ProducerRecord<K, V> record;
+
+        /**
+         * 新增时的追溯id
+         */
+        final String traceId;
+
+        /**
+         * 新增时的日志id
+         */
+        final String logId;
+
+        /**
+         * 发送结果
+         */
+        final CompletableFuture<SendResult<K, V>> future = new CompletableFuture<>();
+
+        Pending(ProducerRecord<K, V> record, String traceId, String logId) {
+            this.record = record;
+            this.traceId = traceId;
+            this.logId = logId;
+        }
+
+    }
+
+    /**
+     * 共用的定时器，一个守护线程，不阻止进程退出
+     */
+    private static final class DefaultScheduler {
+
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "kafka-batch-sender-flush");
+                t.setDaemon(true);
+                return t;
+            });
+
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+
+    }
+
+}
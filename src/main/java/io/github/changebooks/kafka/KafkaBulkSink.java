@@ -0,0 +1,304 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 跨批次累积写入
+ * 多次拉取的消息累积到行数、字节数或等待时间上限后，作为一个批次提交流水线，在线程池中批量写入
+ * 只有写入成功的批次提交位移，累积中的消息不提交位移，写入失败时，回退到首条失败消息，丢弃累积中的消息
+ * 拉取的行数（max.poll.records）与写入的行数解耦，如：每次拉取 500 行，每次写入 5000 行
+ * 需注册为容器的 consumerRebalanceListener，分区回收或丢失时，丢弃该分区累积中的消息，由新的消费者重新拉取
+ * 在监听线程调用，非线程安全
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaBulkSink<K, V> implements ConsumerAwareRebalanceListener {
+    /**
+     * 流水线消费，批量写入并按顺序提交位移
+     */
+    private final KafkaPipelineListener<K, V> pipeline;
+
+    /**
+     * 每次写入的行数上限
+     */
+    private int maxRecords = 5000;
+
+    /**
+     * 每次写入的字节数上限，按序列化后的键和值统计
+     */
+    private long maxBytes = 16777216L;
+
+    /**
+     * 首条消息累积后，最多等待的毫秒数
+     */
+    private long lingerMs = 1000L;
+
+    /**
+     * 每个写入批次的消费上下文
+     */
+    private Supplier<KafkaBatchContext> contextFactory = KafkaBatchContextImpl::new;
+
+    /**
+     * 累积中的消息
+     */
+    private List<ConsumerRecord<K, V>> buffer = new ArrayList<>();
+
+    /**
+     * 累积中的字节数
+     */
+    private long bufferBytes;
+
+    /**
+     * 首条消息累积的时间，纳秒
+     */
+    private long bufferStart;
+
+    public KafkaBulkSink(KafkaPipelineListener<K, V> pipeline) {
+        Assert.notNull(pipeline, "pipeline can't be null");
+
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * 累积消息，达到上限时提交写入，并提交已写入批次的位移
+     *
+     * @param records  消息列表
+     * @param consumer 监听线程的消费者
+     * @return 已累积？否则，之前的批次写入失败，已回退位移，累积中的消息和当前消息被丢弃，等待重新拉取
+     */
+    public boolean listen(final List<ConsumerRecord<K, V>> records, Consumer<?, ?> consumer) {
+        Assert.notNull(consumer, "consumer can't be null");
+
+        if (records != null) {
+            for (ConsumerRecord<K, V> r : records) {
+                if (r != null) {
+                    add(r);
+                }
+            }
+        }
+
+        if (!pipeline.commit(consumer, buffer)) {
+            clear();
+            return false;
+        }
+
+        if (isFull()) {
+            submit();
+        }
+
+        return true;
+    }
+
+    /**
+     * 提交累积中的消息，等待全部批次写入完成，提交位移
+     * 在监听线程调用，如：容器空闲、分区回收之前
+     *
+     * @param consumer 监听线程的消费者
+     */
+    public void flush(Consumer<?, ?> consumer) {
+        Assert.notNull(consumer, "consumer can't be null");
+
+        if (!pipeline.commit(consumer, buffer)) {
+            clear();
+            return;
+        }
+
+        submit();
+        pipeline.flush(consumer);
+    }
+
+    /**
+     * 分区回收之前，丢弃回收分区累积中的消息，等待已提交的批次写入完成，同步提交位移
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 回收的分区
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        remove(partitions);
+        pipeline.onPartitionsRevokedBeforeCommit(consumer, partitions);
+    }
+
+    /**
+     * 分区丢失，丢弃丢失分区累积中的消息和待提交的位移
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 丢失的分区
+     */
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        remove(partitions);
+        pipeline.onPartitionsLost(consumer, partitions);
+    }
+
+    /**
+     * 丢弃分区累积中的消息
+     *
+     * @param partitions 分区
+     */
+    private void remove(Collection<TopicPartition> partitions) {
+        if (partitions == null || partitions.isEmpty() || buffer.isEmpty()) {
+            return;
+        }
+
+        List<ConsumerRecord<K, V>> records = buffer;
+        long start = bufferStart;
+        clear();
+
+        for (ConsumerRecord<K, V> r : records) {
+            if (!partitions.contains(new TopicPartition(r.topic(), r.partition()))) {
+                add(r);
+            }
+        }
+
+        if (!buffer.isEmpty()) {
+            bufferStart = start;
+        }
+    }
+
+    /**
+     * 累积一条消息
+     *
+     * @param record 消息
+     */
+    private void add(ConsumerRecord<K, V> record) {
+        if (buffer.isEmpty()) {
+            bufferStart = System.nanoTime();
+        }
+
+        buffer.add(record);
+        bufferBytes += Math.max(record.serializedKeySize(), 0) + Math.max(record.serializedValueSize(), 0);
+    }
+
+    /**
+     * 达到行数、字节数或等待时间上限？
+     *
+     * @return 达到上限？
+     */
+    private boolean isFull() {
+        if (buffer.isEmpty()) {
+            return false;
+        }
+
+        return buffer.size() >= maxRecords ||
+                bufferBytes >= maxBytes ||
+                System.nanoTime() - bufferStart >= TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    }
+
+    /**
+     * 累积中的消息作为一个批次，提交流水线
+     */
+    private void submit() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        List<ConsumerRecord<K, V>> bulk = buffer;
+        clear();
+
+        pipeline.submit(bulk, contextFactory.get());
+    }
+
+    /**
+     * 清空累积中的消息
+     */
+    private void clear() {
+        buffer = new ArrayList<>();
+        bufferBytes = 0L;
+    }
+
+    /**
+     * 累积中的行数
+     *
+     * @return 行数
+     */
+    public int getBufferSize() {
+        return buffer.size();
+    }
+
+    public KafkaPipelineListener<K, V> getPipeline() {
+        return pipeline;
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * 设置每次写入的行数上限
+     *
+     * @param maxRecords 行数，如：批量写入的最佳行数
+     * @return the {@link KafkaBulkSink} instance
+     */
+    public KafkaBulkSink<K, V> setMaxRecords(int maxRecords) {
+        Assert.isTrue(maxRecords > 0, "maxRecords must be greater than 0");
+
+        this.maxRecords = maxRecords;
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 设置每次写入的字节数上限
+     *
+     * @param maxBytes 字节数，按序列化后的键和值统计
+     * @return the {@link KafkaBulkSink} instance
+     */
+    public KafkaBulkSink<K, V> setMaxBytes(long maxBytes) {
+        Assert.isTrue(maxBytes > 0, "maxBytes must be greater than 0");
+
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * 设置首条消息累积后，最多等待的毫秒数
+     * 只在拉取到消息或 {@link #flush(Consumer)} 时检查，小于 max.poll.interval.ms
+     *
+     * @param lingerMs 毫秒数
+     * @return the {@link KafkaBulkSink} instance
+     */
+    public KafkaBulkSink<K, V> setLingerMs(long lingerMs) {
+        Assert.isTrue(lingerMs >= 0, "lingerMs can't be less than 0");
+
+        this.lingerMs = lingerMs;
+        return this;
+    }
+
+    public Supplier<KafkaBatchContext> getContextFactory() {
+        return contextFactory;
+    }
+
+    /**
+     * 设置每个写入批次的消费上下文
+     *
+     * @param contextFactory 消费上下文，如：{@link KafkaConcurrentBatchContext}
+     * @return the {@link KafkaBulkSink} instance
+     */
+    public KafkaBulkSink<K, V> setContextFactory(Supplier<KafkaBatchContext> contextFactory) {
+        Assert.notNull(contextFactory, "contextFactory can't be null");
+
+        this.contextFactory = contextFactory;
+        return this;
+    }
+
+}
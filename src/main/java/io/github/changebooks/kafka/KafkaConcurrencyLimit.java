@@ -0,0 +1,131 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.util.Assert;
+
+/**
+ * 自适应线程数，加法增大、乘法减小（AIMD）
+ * 批次消费成功、单条耗时未超过基准的容忍倍数、本批次的任务未排队，且线程数已用满：线程数 + 1
+ * 批次消费失败、单条耗时超过基准的容忍倍数、或本批次的任务排队：线程数 * 回退比例
+ * 只按本批次的任务判断排队，共享线程池中其它监听器或任务的排队，不影响线程数
+ * 基准 = 最小的单条耗时，每批次缓慢上浮，适应下游的长期变化
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaConcurrencyLimit {
+    /**
+     * 基准每批次上浮的比例
+     */
+    private static final double BASELINE_DRIFT = 1.01;
+
+    /**
+     * 最小线程数
+     */
+    private final int minLimit;
+
+    /**
+     * 最大线程数
+     */
+    private final int maxLimit;
+
+    /**
+     * 回退比例
+     */
+    private double backoffRatio = 0.9;
+
+    /**
+     * 单条耗时的容忍倍数
+     */
+    private double tolerance = 2.0;
+
+    /**
+     * 当前线程数
+     */
+    private volatile int limit;
+
+    /**
+     * 单条耗时的基准，纳秒
+     */
+    private double baseline;
+
+    public KafkaConcurrencyLimit(int minLimit, int maxLimit) {
+        Assert.isTrue(minLimit > 0, "minLimit must be greater than 0");
+        Assert.isTrue(maxLimit >= minLimit, "maxLimit can't be less than minLimit");
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+    }
+
+    /**
+     * 记录一个批次，调整线程数
+     *
+     * @param size        总行数
+     * @param workerNum   实际线程数
+     * @param elapsed     批次耗时，纳秒
+     * @param failedPages 消费失败的页数
+     * @param queued      本批次排队的任务数，如：开始时分页已被领取完，或截止时仍未开始
+     */
+    public synchronized void onBatch(int size, int workerNum, long elapsed, int failedPages, int queued) {
+        if (size <= 0 || workerNum <= 0) {
+            return;
+        }
+
+        // 单条耗时 ≈ 批次耗时 * 实际线程数 / 总行数
+        double sample = (double) elapsed * workerNum / size;
+        baseline = baseline <= 0 ? sample : Math.min(sample, baseline * BASELINE_DRIFT);
+
+        int current = limit;
+        if (failedPages > 0 || queued > 0 || sample > baseline * tolerance) {
+            limit = Math.max(minLimit, (int) (current * backoffRatio));
+        } else if (workerNum >= current) {
+            limit = Math.min(maxLimit, current + 1);
+        }
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * 设置回退比例
+     *
+     * @param backoffRatio 回退比例，(0, 1)
+     * @return the {@link KafkaConcurrencyLimit} instance
+     */
+    public KafkaConcurrencyLimit setBackoffRatio(double backoffRatio) {
+        Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be between 0 and 1");
+
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * 设置单条耗时的容忍倍数
+     *
+     * @param tolerance 容忍倍数，大于 1
+     * @return the {@link KafkaConcurrencyLimit} instance
+     */
+    public KafkaConcurrencyLimit setTolerance(double tolerance) {
+        Assert.isTrue(tolerance > 1, "tolerance must be greater than 1");
+
+        this.tolerance = tolerance;
+        return this;
+    }
+
+}
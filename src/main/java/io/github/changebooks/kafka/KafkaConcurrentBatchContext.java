@@ -0,0 +1,159 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.util.Assert;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 批量消费上下文的无锁实现
+ * 按总行数预分配数组，多线程新增消费上下文时，原子递增下标，不竞争同一个锁
+ * 超过预分配的容量时，新增到无锁队列
+ * 获取全部消费上下文时，返回只读的实时视图，与 {@link KafkaBatchContextImpl} 相同，随新增而变化
+ * 并发新增时，已领取下标但尚未写入的位置为 null
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaConcurrentBatchContext implements KafkaBatchContext {
+    /**
+     * 消费上下文数组
+     */
+    private final AtomicReferenceArray<KafkaContext> contexts;
+
+    /**
+     * 预分配的容量
+     */
+    private final int capacity;
+
+    /**
+     * 已新增的个数
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * 超过容量的消费上下文
+     */
+    private final Queue<KafkaContext> overflow = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 属性列表
+     */
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>(4);
+
+    /**
+     * 消费上下文的实时视图
+     */
+    private final List<KafkaContext> view = new ContextView();
+
+    /**
+     * 按总行数预分配
+     *
+     * @param capacity 容量，如：批次的总行数
+     */
+    public KafkaConcurrentBatchContext(int capacity) {
+        Assert.isTrue(capacity >= 0, "capacity can't be less than 0");
+
+        this.capacity = capacity;
+        this.contexts = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 按批次的总行数预分配
+     *
+     * @param records 消息列表
+     * @return 批量消费上下文
+     */
+    public static KafkaConcurrentBatchContext of(List<?> records) {
+        return new KafkaConcurrentBatchContext(records != null ? records.size() : 0);
+    }
+
+    @Override
+    public List<KafkaContext> getContexts() {
+        return view;
+    }
+
+    @Override
+    public void addContext(KafkaContext context) {
+        int index = count.getAndIncrement();
+        if (index < capacity) {
+            contexts.set(index, context);
+        } else {
+            overflow.add(context);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Object getAttribute(String key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public void setAttribute(String key, Object value) {
+        this.attributes.put(key, value);
+    }
+
+    /**
+     * 清空，复用
+     */
+    void clear() {
+        int size = Math.min(count.get(), capacity);
+        for (int i = 0; i < size; i++) {
+            contexts.set(i, null);
+        }
+
+        count.set(0);
+        overflow.clear();
+        attributes.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 消费上下文的只读实时视图：先数组，后超过容量的队列
+     */
+    private final class ContextView extends AbstractList<KafkaContext> {
+
+        @Override
+        public KafkaContext get(int index) {
+            int size = Math.min(count.get(), capacity);
+            if (index < 0) {
+                throw new IndexOutOfBoundsException("index: " + index);
+            }
+
+            if (index < size) {
+                return contexts.get(index);
+            }
+
+            Iterator<KafkaContext> iterator = overflow.iterator();
+            for (int i = size; iterator.hasNext(); i++) {
+                KafkaContext c = iterator.next();
+                if (i == index) {
+                    return c;
+                }
+            }
+
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+
+        @Override
+        public int size() {
+            return Math.min(count.get(), capacity) + overflow.size();
+        }
+
+    }
+
+}
@@ -2,10 +2,14 @@ package io.github.changebooks.kafka;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 
+import org.springframework.util.Assert;
+
 import java.io.Serializable;
 
 /**
  * 消费上下文
+ * 对象池借出的消费上下文，归还后、再次借出前读写，抛出 IllegalStateException
+ * 再次借出后，复用同一个对象，仍持有的引用读写的是下一个批次的数据，不可在批次结束后持有
  *
  * @author changebooks@qq.com
  */
@@ -28,38 +32,92 @@ public final class KafkaContext implements Serializable {
     /**
      * 消息内容
      */
-    private ConsumerRecord<String, String> record;
+    private ConsumerRecord<?, ?> record;
+
+    /**
+     * 已归还到对象池？
+     */
+    private transient volatile boolean released;
 
     public KafkaContext() {
         this.code = SUCCESS_OK;
     }
 
+    /**
+     * 重置，复用
+     */
+    public void reset() {
+        check();
+
+        this.code = SUCCESS_OK;
+        this.message = null;
+        this.record = null;
+    }
+
+    /**
+     * 从对象池借出，重置
+     */
+    void obtain() {
+        this.released = false;
+        reset();
+    }
+
+    /**
+     * 归还到对象池，再次借出前不可读写
+     */
+    void release() {
+        this.released = true;
+        this.record = null;
+    }
+
     public boolean isSuccess() {
+        check();
         return code == SUCCESS_OK;
     }
 
     public int getCode() {
+        check();
         return code;
     }
 
     public void setCode(int code) {
+        check();
         this.code = code;
     }
 
     public String getMessage() {
+        check();
         return message;
     }
 
     public void setMessage(String message) {
+        check();
         this.message = message;
     }
 
-    public ConsumerRecord<String, String> getRecord() {
-        return record;
+    /**
+     * 获取消息内容
+     *
+     * @param <K> Key
+     * @param <V> Value
+     * @return 消息内容
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> ConsumerRecord<K, V> getRecord() {
+        check();
+        return (ConsumerRecord<K, V>) record;
     }
 
-    public void setRecord(ConsumerRecord<String, String> record) {
+    public void setRecord(ConsumerRecord<?, ?> record) {
+        check();
         this.record = record;
     }
 
+    /**
+     * 已归还？抛出 IllegalStateException
+     */
+    private void check() {
+        Assert.state(!released, "context has been released");
+    }
+
 }
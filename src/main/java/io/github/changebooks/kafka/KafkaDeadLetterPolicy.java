@@ -0,0 +1,382 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 死信策略
+ * 同一条消息累计消费失败 N 次后，二分失败的分页，找出无法消费的消息，发送到死信主题，其余消息正常提交
+ * 死信保留原有的标头，包括 log_tid 和 log_id，新增原主题、原分区、原位移、异常类名、异常信息
+ * 发送时，日志上下文设置为原消息的追溯id和日志id，发送模板配置了 {@link LogProducerInterceptor} 时，拦截器写入相同的 id
+ * 批次全部失败时，视为下游不可用，不二分、不发送死信；持续超过 outageTimeout 时，视为消息无法消费，发送死信，防止分区一直阻塞
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaDeadLetterPolicy<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaDeadLetterPolicy.class);
+
+    /**
+     * 死信主题的后缀
+     */
+    public static final String TOPIC_SUFFIX = ".DLT";
+
+    /**
+     * 标头：原主题
+     */
+    public static final String ORIGINAL_TOPIC = "kafka_dlt-original-topic";
+
+    /**
+     * 标头：原分区，4 字节
+     */
+    public static final String ORIGINAL_PARTITION = "kafka_dlt-original-partition";
+
+    /**
+     * 标头：原位移，8 字节
+     */
+    public static final String ORIGINAL_OFFSET = "kafka_dlt-original-offset";
+
+    /**
+     * 标头：异常类名
+     */
+    public static final String EXCEPTION_FQCN = "kafka_dlt-exception-fqcn";
+
+    /**
+     * 标头：异常信息
+     */
+    public static final String EXCEPTION_MESSAGE = "kafka_dlt-exception-message";
+
+    /**
+     * 发送模板
+     */
+    private final KafkaTemplate<K, V> template;
+
+    /**
+     * 死信主题，默认：原主题 + {@link #TOPIC_SUFFIX}
+     */
+    private final Function<ConsumerRecord<K, V>, String> topicResolver;
+
+    /**
+     * 累计消费失败的次数，达到后，二分查找
+     */
+    private int maxFailures = 3;
+
+    /**
+     * 最多记录的消息数，超过时，淘汰最早的记录
+     */
+    private int maxTracked = 10000;
+
+    /**
+     * 批次中失败消息的比例达到后，视为下游不可用，不发送死信
+     */
+    private double outageRatio = 1.0;
+
+    /**
+     * 下游不可用的最长时间，毫秒，从首个全部失败的批次开始计时，任一分页消费成功时重新计时
+     */
+    private long outageTimeout = 60000L;
+
+    /**
+     * 下游不可用？
+     */
+    private volatile boolean outage;
+
+    /**
+     * 下游不可用的开始时间，纳秒
+     */
+    private volatile long outageStart;
+
+    /**
+     * 发送死信的超时时间，毫秒
+     */
+    private long sendTimeout = 30000L;
+
+    /**
+     * 每条消息累计消费失败的次数，键 = 主题-分区@位移
+     */
+    private final Map<String, Integer> failures = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > maxTracked;
+        }
+    };
+
+    public KafkaDeadLetterPolicy(KafkaTemplate<K, V> template) {
+        this(template, r -> r.topic() + TOPIC_SUFFIX);
+    }
+
+    public KafkaDeadLetterPolicy(KafkaTemplate<K, V> template, Function<ConsumerRecord<K, V>, String> topicResolver) {
+        Assert.notNull(template, "template can't be null");
+        Assert.notNull(topicResolver, "topicResolver can't be null");
+
+        this.template = template;
+        this.topicResolver = topicResolver;
+    }
+
+    /**
+     * 分页消费失败，累计每条消息的失败次数
+     *
+     * @param records 消费失败的分页
+     * @return 任一消息累计失败次数达到上限？二分查找
+     */
+    public synchronized boolean onFailure(List<ConsumerRecord<K, V>> records) {
+        int max = 0;
+
+        for (ConsumerRecord<K, V> r : records) {
+            max = Math.max(max, failures.merge(key(r), 1, Integer::sum));
+        }
+
+        return max >= maxFailures;
+    }
+
+    /**
+     * 下游不可用？
+     * 只有一条消息时，无法区分，视为可用
+     * 失败比例达到 outageRatio 时开始计时，持续超过 outageTimeout 仍未恢复，视为消息无法消费，不再视为下游不可用
+     *
+     * @param failed 失败的消息数
+     * @param total  批次的消息数
+     * @return 失败比例达到 outageRatio，且未超过 outageTimeout？
+     */
+    public synchronized boolean isOutage(int failed, int total) {
+        if (total <= 1 || failed < total * outageRatio) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (!outage) {
+            outageStart = now;
+            outage = true;
+        }
+
+        return now - outageStart < TimeUnit.MILLISECONDS.toNanos(outageTimeout);
+    }
+
+    /**
+     * 下游不可用期间？不二分查找，避免每次重新投递都逐段重新消费
+     *
+     * @return 已判断为下游不可用，且未超过 outageTimeout？
+     */
+    public boolean isInOutage() {
+        return outage && System.nanoTime() - outageStart < TimeUnit.MILLISECONDS.toNanos(outageTimeout);
+    }
+
+    /**
+     * 分页消费成功，下游已恢复，重新计时
+     */
+    public void onSuccess() {
+        if (outage) {
+            outage = false;
+        }
+    }
+
+    /**
+     * 分页已隔离，清除失败次数
+     *
+     * @param records 已隔离的分页
+     */
+    public synchronized void onIsolated(List<ConsumerRecord<K, V>> records) {
+        for (ConsumerRecord<K, V> r : records) {
+            failures.remove(key(r));
+        }
+    }
+
+    /**
+     * 发送死信，等待发送完成
+     *
+     * @param record 无法消费的消息
+     * @param cause  异常，空？消费接口返回 false
+     * @return 发送成功？
+     */
+    public boolean publish(ConsumerRecord<K, V> record, @Nullable Throwable cause) {
+        try {
+            Headers headers = new RecordHeaders(record.headers().toArray());
+            headers.add(ORIGINAL_TOPIC, Utils.utf8(record.topic()));
+            headers.add(ORIGINAL_PARTITION, ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array());
+            headers.add(ORIGINAL_OFFSET, ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array());
+
+            if (cause != null) {
+                headers.add(EXCEPTION_FQCN, Utils.utf8(cause.getClass().getName()));
+                if (cause.getMessage() != null) {
+                    headers.add(EXCEPTION_MESSAGE, Utils.utf8(cause.getMessage()));
+                }
+            }
+
+            String topic = topicResolver.apply(record);
+            send(new ProducerRecord<>(topic, null, record.key(), record.value(), headers));
+
+            LOGGER.warn("publish dead letter, topic: {}, partition: {}, offset: {}, deadLetterTopic: {}",
+                    record.topic(), record.partition(), record.offset(), topic);
+            return true;
+        } catch (InterruptedException tr) {
+            LOGGER.error("publish failed, throwable: ", tr);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Throwable tr) {
+            LOGGER.error("publish failed, throwable: ", tr);
+            return false;
+        }
+    }
+
+    /**
+     * 发送死信，等待发送完成
+     * 日志上下文设置为原消息的追溯id和日志id，发送后恢复，拦截器不新增其它 id
+     *
+     * @param deadLetter 死信，含原消息的标头
+     * @throws Exception 发送失败或超时
+     */
+    private void send(ProducerRecord<K, V> deadLetter) throws Exception {
+        Headers headers = deadLetter.headers();
+        String traceId = KafkaTraceContext.getTraceId(headers);
+        String logId = KafkaTraceContext.getLogId(headers);
+
+        Map<String, String> logContext = MDC.getCopyOfContextMap();
+        try {
+            if (StringUtils.hasText(traceId)) {
+                LogTraceId.set(traceId);
+            }
+
+            if (StringUtils.hasText(logId)) {
+                LogId.set(logId);
+            }
+
+            template.send(deadLetter).get(sendTimeout, TimeUnit.MILLISECONDS);
+        } finally {
+            if (logContext != null) {
+                MDC.setContextMap(logContext);
+            } else {
+                MDC.clear();
+            }
+        }
+    }
+
+    /**
+     * 消息的键
+     *
+     * @param record 消息
+     * @return 主题-分区@位移
+     */
+    private static String key(ConsumerRecord<?, ?> record) {
+        return record.topic() + "-" + record.partition() + "@" + record.offset();
+    }
+
+    public KafkaTemplate<K, V> getTemplate() {
+        return template;
+    }
+
+    public Function<ConsumerRecord<K, V>, String> getTopicResolver() {
+        return topicResolver;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * 设置累计消费失败的次数
+     * 跨批次累计，避免下游短暂不可用时，误判为无法消费的消息
+     *
+     * @param maxFailures 失败次数，达到后，二分查找，1：首次失败即二分查找
+     * @return the {@link KafkaDeadLetterPolicy} instance
+     */
+    public KafkaDeadLetterPolicy<K, V> setMaxFailures(int maxFailures) {
+        Assert.isTrue(maxFailures > 0, "maxFailures must be greater than 0");
+
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    public int getMaxTracked() {
+        return maxTracked;
+    }
+
+    /**
+     * 设置最多记录的消息数
+     *
+     * @param maxTracked 消息数，超过时，淘汰最早的记录
+     * @return the {@link KafkaDeadLetterPolicy} instance
+     */
+    public KafkaDeadLetterPolicy<K, V> setMaxTracked(int maxTracked) {
+        Assert.isTrue(maxTracked > 0, "maxTracked must be greater than 0");
+
+        this.maxTracked = maxTracked;
+        return this;
+    }
+
+    public double getOutageRatio() {
+        return outageRatio;
+    }
+
+    /**
+     * 设置视为下游不可用的失败比例
+     * 按整个批次统计，包括每条消息一页、chunkSize = 1、单条消息的键分组
+     *
+     * @param outageRatio 比例，(0, 1]，1：全部消息失败
+     * @return the {@link KafkaDeadLetterPolicy} instance
+     */
+    public KafkaDeadLetterPolicy<K, V> setOutageRatio(double outageRatio) {
+        Assert.isTrue(outageRatio > 0 && outageRatio <= 1, "outageRatio must be in (0, 1]");
+
+        this.outageRatio = outageRatio;
+        return this;
+    }
+
+    public long getOutageTimeout() {
+        return outageTimeout;
+    }
+
+    /**
+     * 设置下游不可用的最长时间
+     * 持续全部失败超过该时间，视为消息无法消费，发送死信，防止一直不发送死信，分区一直阻塞
+     *
+     * @param outageTimeout 毫秒，0：不视为下游不可用，总是发送死信
+     * @return the {@link KafkaDeadLetterPolicy} instance
+     */
+    public KafkaDeadLetterPolicy<K, V> setOutageTimeout(long outageTimeout) {
+        Assert.isTrue(outageTimeout >= 0, "outageTimeout can't be less than 0");
+
+        this.outageTimeout = outageTimeout;
+        return this;
+    }
+
+    public long getSendTimeout() {
+        return sendTimeout;
+    }
+
+    /**
+     * 设置发送死信的超时时间
+     *
+     * @param sendTimeout 超时时间，毫秒
+     * @return the {@link KafkaDeadLetterPolicy} instance
+     */
+    public KafkaDeadLetterPolicy<K, V> setSendTimeout(long sendTimeout) {
+        Assert.isTrue(sendTimeout > 0, "sendTimeout must be greater than 0");
+
+        this.sendTimeout = sendTimeout;
+        return this;
+    }
+
+}
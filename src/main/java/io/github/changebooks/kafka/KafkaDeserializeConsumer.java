@@ -0,0 +1,105 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 执行线程中反序列化，再批量消费
+ * 监听线程只拉取 byte[]，反序列化在执行线程中并行执行
+ * 反序列化失败，视为当前分页消费失败
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaDeserializeConsumer<K, V> implements KafkaBatchConsumer<byte[], byte[]> {
+    /**
+     * Key 反序列化，线程安全
+     */
+    private final Deserializer<K> keyDeserializer;
+
+    /**
+     * Value 反序列化，线程安全
+     */
+    private final Deserializer<V> valueDeserializer;
+
+    /**
+     * 消费接口
+     */
+    private final KafkaBatchConsumer<K, V> consumer;
+
+    public KafkaDeserializeConsumer(Deserializer<K> keyDeserializer, Deserializer<V> valueDeserializer, KafkaBatchConsumer<K, V> consumer) {
+        Assert.notNull(keyDeserializer, "keyDeserializer can't be null");
+        Assert.notNull(valueDeserializer, "valueDeserializer can't be null");
+        Assert.notNull(consumer, "consumer can't be null");
+
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public boolean consume(final List<ConsumerRecord<byte[], byte[]>> records, @Nullable final KafkaBatchContext context) {
+        if (records == null) {
+            return consumer.consume(null, context);
+        }
+
+        List<ConsumerRecord<K, V>> result = new ArrayList<>(records.size());
+        for (ConsumerRecord<byte[], byte[]> r : records) {
+            result.add(deserialize(r));
+        }
+
+        // 逐条设置日志上下文的分页，反序列化后，消费接口遍历时仍逐条设置
+        if (records instanceof KafkaLogPage) {
+            return consumer.consume(new KafkaLogPage<>(result, ((KafkaLogPage<byte[], byte[]>) records).getLogger()), context);
+        } else {
+            return consumer.consume(result, context);
+        }
+    }
+
+    /**
+     * 反序列化
+     *
+     * @param record 消息，byte[]
+     * @return 消息，保留主题、分区、位移、时间戳和标头
+     */
+    public ConsumerRecord<K, V> deserialize(ConsumerRecord<byte[], byte[]> record) {
+        if (record == null) {
+            return null;
+        }
+
+        K key = keyDeserializer.deserialize(record.topic(), record.headers(), record.key());
+        V value = valueDeserializer.deserialize(record.topic(), record.headers(), record.value());
+
+        return new ConsumerRecord<>(
+                record.topic(),
+                record.partition(),
+                record.offset(),
+                record.timestamp(),
+                record.timestampType(),
+                record.serializedKeySize(),
+                record.serializedValueSize(),
+                key,
+                value,
+                record.headers(),
+                record.leaderEpoch());
+    }
+
+    public Deserializer<K> getKeyDeserializer() {
+        return keyDeserializer;
+    }
+
+    public Deserializer<V> getValueDeserializer() {
+        return valueDeserializer;
+    }
+
+    public KafkaBatchConsumer<K, V> getConsumer() {
+        return consumer;
+    }
+
+}
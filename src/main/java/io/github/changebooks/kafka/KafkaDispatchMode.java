@@ -0,0 +1,25 @@
+package io.github.changebooks.kafka;
+
+/**
+ * 分发模式
+ *
+ * @author changebooks@qq.com
+ */
+public enum KafkaDispatchMode {
+    /**
+     * 按下标连续分页，同键、同分区的消息可能被不同线程并行消费
+     */
+    PAGE,
+
+    /**
+     * 按分区分组，同分区的消息由同一线程顺序消费
+     */
+    PARTITION,
+
+    /**
+     * 按键分组，同键的消息由同一线程顺序消费
+     * 键为空时，按分区分组
+     */
+    KEY
+
+}
@@ -0,0 +1,62 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.util.Assert;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 执行线程
+ *
+ * @author changebooks@qq.com
+ */
+public final class KafkaExecutors {
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor()，Java 21 之前？空
+     */
+    private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
+    private KafkaExecutors() {
+    }
+
+    /**
+     * 支持虚拟线程？
+     *
+     * @return Java 21 及之后？
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * 每个任务一个虚拟线程
+     * 配合 {@link KafkaBatchListener#perRecord(java.util.concurrent.Executor, KafkaBatchConsumer)}，每条消息一个虚拟线程，适用于阻塞调用
+     *
+     * @return 虚拟线程的执行线程
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Assert.state(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null, "virtual thread requires java 21 or later");
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+        } catch (RuntimeException | Error tr) {
+            throw tr;
+        } catch (Throwable tr) {
+            throw new IllegalStateException(tr);
+        }
+    }
+
+    private static MethodHandle findVirtualThreadPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException tr) {
+            return null;
+        }
+    }
+
+}
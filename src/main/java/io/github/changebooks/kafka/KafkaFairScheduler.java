@@ -0,0 +1,356 @@
+package io.github.changebooks.kafka;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 公平调度
+ * 多个监听共用一个执行线程时，每个监听注册一个通道，按权重分配执行时间，差额轮询（DRR）
+ * 每轮每个通道获得 权重 * 时间片 的额度，执行任务按预估耗时扣减额度，完成后按实际耗时修正
+ * 空闲的通道不累积额度，突发的大流量通道不会占满执行线程，小流量通道的延迟保持稳定
+ * <pre>
+ * KafkaFairScheduler scheduler = new KafkaFairScheduler(EXECUTOR, 16);
+ * new KafkaBatchListener&lt;&gt;(scheduler.register("order", 4), orderConsumer);
+ * new KafkaBatchListener&lt;&gt;(scheduler.register("report", 1), reportConsumer);
+ * </pre>
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaFairScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaFairScheduler.class);
+
+    /**
+     * 执行线程
+     */
+    private final Executor executor;
+
+    /**
+     * 最多同时执行的任务数，不大于执行线程的最大线程数
+     */
+    private final int concurrency;
+
+    /**
+     * 每轮的时间片，纳秒
+     */
+    private long quantum = 1000000L;
+
+    /**
+     * 已注册的通道
+     */
+    private final List<Lane> lanes = new ArrayList<>();
+
+    /**
+     * 当前轮询的通道
+     */
+    private int cursor;
+
+    /**
+     * 排队的任务数
+     */
+    private int queued;
+
+    /**
+     * 已启动的工作线程数
+     */
+    private int running;
+
+    /**
+     * 正在执行任务的工作线程数
+     */
+    private int executing;
+
+    public KafkaFairScheduler(Executor executor, int concurrency) {
+        Assert.notNull(executor, "executor can't be null");
+        Assert.isTrue(concurrency > 0, "concurrency must be greater than 0");
+
+        this.executor = executor;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 注册一个通道
+     * 每个监听一个通道，需要按分区公平时，每个分区一个通道
+     *
+     * @param name   通道名，如：主题
+     * @param weight 权重，按权重分配执行时间
+     * @return 通道，作为监听的执行线程
+     */
+    public synchronized Lane register(String name, int weight) {
+        Assert.hasText(name, "name can't be empty");
+        Assert.isTrue(weight > 0, "weight must be greater than 0");
+
+        Lane lane = new Lane(name, weight);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * 每个通道的执行时间占比
+     *
+     * @return 通道名 -> 占比 [0, 1]
+     */
+    public synchronized Map<String, Double> getShares() {
+        long total = 0L;
+        for (Lane lane : lanes) {
+            total += lane.busy;
+        }
+
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Lane lane : lanes) {
+            result.put(lane.name, total > 0 ? (double) lane.busy / total : 0.0);
+        }
+
+        return result;
+    }
+
+    /**
+     * 排队的任务多于空闲的工作线程时，启动工作线程
+     *
+     * @param lane 新增任务的通道
+     * @param task 新增的任务
+     */
+    private void schedule(Lane lane, Runnable task) {
+        while (true) {
+            synchronized (this) {
+                if (running >= concurrency || queued <= running - executing) {
+                    return;
+                }
+
+                running++;
+            }
+
+            try {
+                executor.execute(this::work);
+            } catch (RejectedExecutionException tr) {
+                synchronized (this) {
+                    running--;
+
+                    // 没有工作线程执行新增的任务，退回调用方
+                    if (running == 0 && lane.queue.remove(task)) {
+                        queued--;
+                        throw tr;
+                    }
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * 工作线程：按差额轮询领取任务并执行，没有排队的任务时退出
+     */
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            long estimate;
+
+            synchronized (this) {
+                lane = next();
+                if (lane == null) {
+                    running--;
+                    return;
+                }
+
+                task = lane.queue.poll();
+                queued--;
+                executing++;
+
+                estimate = lane.estimate;
+                lane.deficit -= estimate;
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable tr) {
+                LOGGER.error("work failed, lane: {}, throwable: ", lane.name, tr);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+
+                synchronized (this) {
+                    executing--;
+                    lane.onComplete(estimate, elapsed);
+                }
+            }
+        }
+    }
+
+    /**
+     * 差额轮询，下一个可执行的通道，调用方持有锁
+     * 当前通道有额度时继续执行，否则，轮询下一个通道，全部通道没有额度时，按最少的轮数补充额度
+     *
+     * @return 通道，没有排队的任务？返回 空
+     */
+    private Lane next() {
+        if (queued <= 0) {
+            return null;
+        }
+
+        int size = lanes.size();
+        while (true) {
+            for (int i = 0; i < size; i++) {
+                Lane lane = lanes.get(cursor);
+                if (lane.queue.isEmpty()) {
+                    // 空闲的通道不累积额度
+                    lane.deficit = Math.min(lane.deficit, 0L);
+                } else if (lane.deficit > 0) {
+                    return lane;
+                }
+
+                cursor = (cursor + 1) % size;
+            }
+
+            long rounds = Long.MAX_VALUE;
+            for (Lane lane : lanes) {
+                if (!lane.queue.isEmpty()) {
+                    rounds = Math.min(rounds, -lane.deficit / (lane.weight * quantum) + 1);
+                }
+            }
+
+            for (Lane lane : lanes) {
+                if (!lane.queue.isEmpty()) {
+                    lane.deficit += rounds * lane.weight * quantum;
+                }
+            }
+        }
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getQuantum() {
+        return quantum;
+    }
+
+    /**
+     * 设置每轮的时间片
+     *
+     * @param quantum 时间片，纳秒，越小越公平，越大每次连续执行的任务越多
+     * @return the {@link KafkaFairScheduler} instance
+     */
+    public synchronized KafkaFairScheduler setQuantum(long quantum) {
+        Assert.isTrue(quantum > 0, "quantum must be greater than 0");
+
+        this.quantum = quantum;
+        return this;
+    }
+
+    /**
+     * 通道
+     * 作为监听的执行线程，任务进入本通道的队列，由公平调度的工作线程执行
+     */
+    public final class Lane implements Executor {
+        /**
+         * 通道名
+         */
+        private final String name;
+
+        /**
+         * 权重
+         */
+        private final int weight;
+
+        /**
+         * 排队的任务
+         */
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+
+        /**
+         * 剩余额度，纳秒
+         */
+        private long deficit;
+
+        /**
+         * 预估耗时，纳秒，按实际耗时平滑
+         */
+        private long estimate = quantum;
+
+        /**
+         * 已完成的任务数
+         */
+        private long completed;
+
+        /**
+         * 累计执行时间，纳秒
+         */
+        private long busy;
+
+        private Lane(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            Assert.notNull(task, "task can't be null");
+
+            synchronized (KafkaFairScheduler.this) {
+                queue.add(task);
+                queued++;
+            }
+
+            schedule(this, task);
+        }
+
+        /**
+         * 任务完成，按实际耗时修正额度，调用方持有锁
+         *
+         * @param estimated 执行前扣减的预估耗时
+         * @param elapsed   实际耗时
+         */
+        private void onComplete(long estimated, long elapsed) {
+            deficit += estimated - elapsed;
+            estimate += (elapsed - estimate) / 8;
+            estimate = Math.max(estimate, 1L);
+
+            completed++;
+            busy += elapsed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getQueueSize() {
+            synchronized (KafkaFairScheduler.this) {
+                return queue.size();
+            }
+        }
+
+        public long getCompleted() {
+            synchronized (KafkaFairScheduler.this) {
+                return completed;
+            }
+        }
+
+        public long getBusy() {
+            synchronized (KafkaFairScheduler.this) {
+                return busy;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,26 @@
+package io.github.changebooks.kafka;
+
+/**
+ * 日志标头格式
+ *
+ * @author changebooks@qq.com
+ */
+public enum KafkaHeaderFormat {
+    /**
+     * 字符串标头，追溯id：log_tid，日志id：log_id
+     */
+    STRING,
+
+    /**
+     * 定长二进制标头，log_ctx，同时携带追溯id和日志id
+     * id 不是 32 位或 UUID 格式的小写十六进制时，使用字符串标头
+     * 接收方需先升级，可读取两种格式
+     */
+    BINARY,
+
+    /**
+     * 二进制标头，另设 W3C traceparent 标头，供其它链路追踪系统读取
+     */
+    BINARY_TRACEPARENT
+
+}
@@ -0,0 +1,152 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.util.Assert;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * 按键合并
+ * 同主题、同键的消息合并为一条，默认保留位移最大的一条（后写覆盖），可自定义合并函数
+ * 合并后的消息按每组最后一条消息的位置排序，键为空的消息不合并
+ * 每条合并后的消息记录所覆盖的原消息，按原消息统计位移，合并后的消息消费失败时，所覆盖的原消息全部视为失败
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaKeyCompactor<K, V> {
+    /**
+     * 合并函数：(较早的消息, 较晚的消息) -> 合并后的消息
+     */
+    private final BinaryOperator<ConsumerRecord<K, V>> merger;
+
+    public KafkaKeyCompactor(BinaryOperator<ConsumerRecord<K, V>> merger) {
+        Assert.notNull(merger, "merger can't be null");
+
+        this.merger = merger;
+    }
+
+    /**
+     * 后写覆盖，保留位移最大的一条
+     *
+     * @param <K> Key
+     * @param <V> Value
+     * @return the {@link KafkaKeyCompactor} instance
+     */
+    public static <K, V> KafkaKeyCompactor<K, V> lastWriteWins() {
+        return new KafkaKeyCompactor<>((older, newer) -> newer);
+    }
+
+    /**
+     * 按键合并
+     *
+     * @param records 消息列表
+     * @return 合并后的消息 -> 所覆盖的原消息，按每组最后一条消息的位置排序
+     */
+    public Map<ConsumerRecord<K, V>, List<ConsumerRecord<K, V>>> compact(List<ConsumerRecord<K, V>> records) {
+        Assert.notNull(records, "records can't be null");
+
+        int size = records.size();
+        Group<K, V>[] groupAt = newGroupArray(size);
+        Map<Object, Group<K, V>> groups = new HashMap<>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            ConsumerRecord<K, V> r = records.get(i);
+
+            Group<K, V> g = null;
+            Object key = key(r);
+            if (key != null) {
+                g = groups.get(key);
+            }
+
+            if (g == null) {
+                g = new Group<>(r);
+                if (key != null) {
+                    groups.put(key, g);
+                }
+            } else {
+                g.merged = merger.apply(g.merged, r);
+                g.records.add(r);
+            }
+
+            g.lastIndex = i;
+            groupAt[i] = g;
+        }
+
+        Map<ConsumerRecord<K, V>, List<ConsumerRecord<K, V>>> result = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            Group<K, V> g = groupAt[i];
+            if (g.lastIndex == i) {
+                result.put(g.merged, g.records);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 合并的键：主题 + 键，字节数组按内容比较
+     *
+     * @param record 消息
+     * @return 键为空？返回 空
+     */
+    private static Object key(ConsumerRecord<?, ?> record) {
+        Object key = record.key();
+        if (key == null) {
+            return null;
+        }
+
+        if (key instanceof byte[]) {
+            key = ByteBuffer.wrap((byte[]) key);
+        }
+
+        return Arrays.asList(record.topic(), key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Group<K, V>[] newGroupArray(int size) {
+        return (Group<K, V>[]) new Group<?, ?>[size];
+    }
+
+    public BinaryOperator<ConsumerRecord<K, V>> getMerger() {
+        return merger;
+    }
+
+    /**
+     * 同键的一组消息
+     *
+     * @param <K> Key
+     * @param <V> Value
+     */
+    private static final class Group<K, V> {
+        /**
+         * 所覆盖的原消息
+         */
+        final List<ConsumerRecord<K, V>> records = new ArrayList<>(1);
+
+        /**
+         * 合并后的消息
+         */
+        ConsumerRecord<K, V> merged;
+
+        /**
+         * 最后一条消息的位置
+         */
+        int lastIndex;
+
+        Group(ConsumerRecord<K, V> record) {
+            this.records.add(record);
+            this.merged = record;
+        }
+
+    }
+
+}
@@ -30,7 +30,7 @@ public final class KafkaLogId {
     public static void onConsume(Headers headers) {
         Objects.requireNonNull(headers, "headers can't be null");
 
-        String logId = KafkaHeaders.get(headers, KEY_NAME);
+        String logId = KafkaTraceContext.getLogId(headers);
         if (StringUtils.hasText(logId)) {
             LogParentId.set(logId);
         }
@@ -41,6 +41,7 @@ public final class KafkaLogId {
     /**
      * 发送之前
      * 从日志上下文获取日志id，设置待发送消息
+     * 替换已有的日志id标头，不重复新增
      *
      * @param headers 待发送的消息的标头
      */
@@ -49,17 +50,19 @@ public final class KafkaLogId {
 
         String logId = LogId.get();
         if (StringUtils.hasText(logId)) {
+            headers.remove(KEY_NAME);
             KafkaHeaders.set(headers, KEY_NAME, logId);
             return;
         }
 
-        logId = KafkaHeaders.get(headers, KEY_NAME);
+        logId = KafkaTraceContext.getLogId(headers);
         if (StringUtils.hasText(logId)) {
             return;
         }
 
         LogId.init();
         logId = LogId.get();
+        headers.remove(KEY_NAME);
         KafkaHeaders.set(headers, KEY_NAME, logId);
     }
 
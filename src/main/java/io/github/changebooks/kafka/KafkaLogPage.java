@@ -0,0 +1,221 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogParentId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.slf4j.Logger;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 逐条设置日志上下文的分页
+ * 遍历时，从每条消息的标头获取日志信息，设置当前线程的日志上下文
+ * 与上一条消息的二进制标头相同时，不重复解码；与上一条消息的追溯id、日志id相同时，不重复设置
+ * 按 {@link KafkaTraceContext} 的顺序读取：二进制标头（log_ctx）、字符串标头（log_tid、log_id）、traceparent 标头
+ * 消息没有追溯id时，与 {@link LogConsumerInterceptor} 相同，开始新的追溯，不沿用上一条消息的追溯id和父id
+ * 遍历（iterator、for-each、forEach、stream，包括 subList 的遍历）和按下标获取（get）都设置日志上下文
+ * 设置了日志时，只有日志开启 INFO 级别才解码标头，未开启时，不修改日志上下文
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public final class KafkaLogPage<K, V> extends AbstractList<ConsumerRecord<K, V>> {
+    /**
+     * 消息列表
+     */
+    private final List<ConsumerRecord<K, V>> records;
+
+    /**
+     * 消费接口的日志，空？总是解码
+     */
+    private final Logger logger;
+
+    /**
+     * 按下标获取时，设置日志上下文
+     */
+    private final LogApplier applier = new LogApplier();
+
+    public KafkaLogPage(List<ConsumerRecord<K, V>> records) {
+        this(records, null);
+    }
+
+    public KafkaLogPage(List<ConsumerRecord<K, V>> records, @Nullable Logger logger) {
+        Assert.notNull(records, "records can't be null");
+
+        this.records = records;
+        this.logger = logger;
+    }
+
+    @Override
+    public ConsumerRecord<K, V> get(int index) {
+        ConsumerRecord<K, V> record = records.get(index);
+        if (record != null && isEnabled()) {
+            applier.apply(record.headers());
+        }
+
+        return record;
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public Iterator<ConsumerRecord<K, V>> iterator() {
+        return new LogIterator();
+    }
+
+    /**
+     * 子列表，遍历时同样设置日志上下文
+     *
+     * @param fromIndex 起始下标，包含
+     * @param toIndex   结束下标，不包含
+     * @return 逐条设置日志上下文的分页
+     */
+    @Override
+    public List<ConsumerRecord<K, V>> subList(int fromIndex, int toIndex) {
+        return new KafkaLogPage<>(records.subList(fromIndex, toIndex), logger);
+    }
+
+    /**
+     * 日志开启？
+     *
+     * @return 没有设置日志，或日志开启 INFO 级别？解码标头，否则，不解码
+     */
+    private boolean isEnabled() {
+        return logger == null || logger.isInfoEnabled();
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * 逐条设置日志上下文的迭代器
+     */
+    private final class LogIterator implements Iterator<ConsumerRecord<K, V>> {
+        /**
+         * 消息迭代器
+         */
+        final Iterator<ConsumerRecord<K, V>> iterator = records.iterator();
+
+        /**
+         * 设置日志上下文
+         */
+        final LogApplier applier = new LogApplier();
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public ConsumerRecord<K, V> next() {
+            ConsumerRecord<K, V> record = iterator.next();
+            if (record != null && isEnabled()) {
+                applier.apply(record.headers());
+            }
+
+            return record;
+        }
+
+    }
+
+    /**
+     * 从消息的标头设置日志上下文，与上一条消息的日志信息相同时，不重复解码
+     */
+    private static final class LogApplier {
+        /**
+         * 上一条消息的二进制日志标头
+         */
+        byte[] context;
+
+        /**
+         * 上一条消息的追溯id
+         */
+        String traceId;
+
+        /**
+         * 上一条消息的日志id
+         */
+        String logId;
+
+        /**
+         * 从已接收消息的标头获取日志信息，设置日志上下文
+         * 与 {@link KafkaTraceContext#getTraceId(Headers)}、{@link KafkaTraceContext#getLogId(Headers)} 的读取顺序相同
+         *
+         * @param headers 已接收消息的标头
+         */
+        void apply(Headers headers) {
+            byte[] value = valueOf(headers, KafkaTraceContext.KEY_NAME);
+            if (value != null && Arrays.equals(value, context)) {
+                return;
+            }
+
+            context = value;
+
+            String nextTraceId = KafkaTraceContext.getTraceId(headers);
+            if (!StringUtils.hasText(nextTraceId)) {
+                // 没有追溯id，与 LogConsumerInterceptor 相同，开始新的追溯
+                LogTraceId.init();
+                LogParentId.set("");
+                LogId.init();
+                context = null;
+                traceId = null;
+                logId = null;
+                return;
+            }
+
+            boolean traceChanged = !nextTraceId.equals(traceId);
+            if (traceChanged) {
+                LogTraceId.set(nextTraceId);
+                traceId = nextTraceId;
+            }
+
+            String nextLogId = KafkaTraceContext.getLogId(headers);
+            if (!StringUtils.hasText(nextLogId)) {
+                // 没有日志id，不沿用上一条消息的父id
+                if (traceChanged || logId != null) {
+                    LogParentId.set("");
+                    LogId.init();
+                    logId = null;
+                }
+            } else if (traceChanged || !nextLogId.equals(logId)) {
+                LogParentId.set(nextLogId);
+                LogId.init();
+                logId = nextLogId;
+            }
+        }
+
+        byte[] valueOf(Headers headers, String key) {
+            if (headers == null) {
+                return null;
+            }
+
+            Header header = headers.lastHeader(key);
+            if (header == null) {
+                return null;
+            }
+
+            byte[] value = header.value();
+            if (value == null || value.length == 0) {
+                return null;
+            } else {
+                return value;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,526 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流水线消费
+ * 当前批次在线程池中消费时，监听线程继续拉取下一批次，最多同时消费 maxInFlight 个批次
+ * 批次按提交顺序完成，按顺序提交位移，任一批次消费失败，回退到首条失败消息，重新拉取
+ * 批次由协调线程执行，协调线程等待分页完成，分页由 {@link KafkaBatchListener#getExecutor()} 执行
+ * 协调线程不可与分页的执行线程共用，否则批次占满线程后，分页无线程可用，永久等待
+ * 分发模式为 PARTITION 或 KEY 时，与之前批次分区相同的批次，等待之前的批次完成后再消费，保持分区内、键内的顺序
+ * 只有分区不相交的批次并行消费；分发模式为 PAGE 时，不保证顺序
+ * 需要 ack-mode: manual，由 {@link #listen(List, KafkaBatchContext, Consumer)} 在监听线程提交位移
+ * 需注册为容器的 consumerRebalanceListener，分区回收之前等待全部批次完成，提交位移
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public class KafkaPipelineListener<K, V> implements ConsumerAwareRebalanceListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaPipelineListener.class);
+
+    /**
+     * 消息分页，并行消费
+     */
+    private final KafkaBatchListener<K, V> batchListener;
+
+    /**
+     * 同时消费的最大批次数
+     */
+    private final int maxInFlight;
+
+    /**
+     * 批次的协调线程，等待分页完成
+     */
+    private final Executor coordinator;
+
+    /**
+     * 同时消费的批次许可
+     */
+    private final Semaphore permits;
+
+    /**
+     * 按提交顺序，最后一个批次的消费结果
+     */
+    private CompletableFuture<KafkaBatchResult<K, V>> tail = CompletableFuture.completedFuture(null);
+
+    /**
+     * 每分区最后一个批次的消费结果，保持分区内的顺序
+     */
+    private final Map<TopicPartition, CompletableFuture<KafkaBatchResult<K, V>>> partitionTails = new HashMap<>();
+
+    /**
+     * 待提交的位移
+     */
+    private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+    /**
+     * 待回退的位移，每分区首条未消费成功的消息
+     */
+    private final Map<TopicPartition, Long> seekOffsets = new HashMap<>();
+
+    /**
+     * 消费失败，等待回退？
+     */
+    private boolean halted;
+
+    /**
+     * 协调线程：maxInFlight 个守护线程，空闲时回收
+     *
+     * @param batchListener 批量消费
+     * @param maxInFlight   同时消费的最大批次数
+     */
+    public KafkaPipelineListener(KafkaBatchListener<K, V> batchListener, int maxInFlight) {
+        this(batchListener, maxInFlight, newCoordinator(maxInFlight));
+    }
+
+    /**
+     * @param batchListener 批量消费
+     * @param maxInFlight   同时消费的最大批次数
+     * @param coordinator   批次的协调线程，不可与分页的执行线程共用，线程数不少于 maxInFlight
+     */
+    public KafkaPipelineListener(KafkaBatchListener<K, V> batchListener, int maxInFlight, Executor coordinator) {
+        Assert.notNull(batchListener, "batchListener can't be null");
+        Assert.isTrue(maxInFlight > 0, "maxInFlight must be greater than 0");
+        Assert.notNull(coordinator, "coordinator can't be null");
+        Assert.isTrue(coordinator != batchListener.getExecutor(), "coordinator can't be the executor of batchListener");
+
+        this.batchListener = batchListener;
+        this.maxInFlight = maxInFlight;
+        this.coordinator = coordinator;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * 提交已完成批次的位移，再提交当前批次
+     * 在监听线程调用
+     *
+     * @param records  消息列表
+     * @param context  消费上下文
+     * @param consumer 监听线程的消费者
+     * @return 当前批次已提交？否则，之前的批次消费失败，已回退位移，当前批次被丢弃，等待重新拉取
+     */
+    public boolean listen(final List<ConsumerRecord<K, V>> records,
+                          @Nullable final KafkaBatchContext context,
+                          Consumer<?, ?> consumer) {
+        Assert.notNull(consumer, "consumer can't be null");
+
+        if (commit(consumer, records)) {
+            submit(records, context);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * 等待全部批次完成，同步提交位移
+     * 在监听线程调用，如：容器空闲
+     *
+     * @param consumer 监听线程的消费者
+     */
+    public void flush(Consumer<?, ?> consumer) {
+        Assert.notNull(consumer, "consumer can't be null");
+
+        await();
+        commit(consumer, null, Collections.emptySet(), true);
+    }
+
+    /**
+     * 分区回收之前，等待全部批次完成，同步提交位移，已回收的分区不回退
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 回收的分区
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Assert.notNull(consumer, "consumer can't be null");
+
+        await();
+        commit(consumer, null, partitions != null ? partitions : Collections.emptySet(), true);
+    }
+
+    /**
+     * 分区丢失，不可提交位移，等待全部批次完成，丢弃丢失分区的位移
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 丢失的分区
+     */
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (partitions == null || partitions.isEmpty()) {
+            return;
+        }
+
+        await();
+
+        synchronized (this) {
+            for (TopicPartition partition : partitions) {
+                offsets.remove(partition);
+                seekOffsets.remove(partition);
+            }
+        }
+    }
+
+    /**
+     * 提交一个批次，不等待消费完成
+     * 同时消费的批次达到上限时，等待之前的批次完成
+     *
+     * @param records 消息列表
+     * @param context 消费上下文
+     * @return 批量消费结果，按提交顺序完成
+     */
+    public CompletableFuture<KafkaBatchResult<K, V>> submit(final List<ConsumerRecord<K, V>> records,
+                                                                      @Nullable final KafkaBatchContext context) {
+        synchronized (this) {
+            if (halted) {
+                addSeekOffsets(records);
+                return CompletableFuture.completedFuture(KafkaBatchResult.failure(records));
+            }
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException tr) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("submit failed, throwable: ", tr);
+
+            synchronized (this) {
+                halt(KafkaBatchResult.failure(records));
+            }
+
+            return CompletableFuture.completedFuture(KafkaBatchResult.failure(records));
+        }
+
+        final Map<String, String> logContext = MDC.getCopyOfContextMap();
+
+        synchronized (this) {
+            Set<TopicPartition> partitions = partitionsOf(records);
+            CompletableFuture<?> previous = previousOf(partitions);
+
+            CompletableFuture<KafkaBatchResult<K, V>> done;
+            try {
+                done = previous.handle((r, tr) -> null).thenApplyAsync(ignored -> {
+                    try {
+                        if (logContext != null) {
+                            MDC.setContextMap(logContext);
+                        }
+
+                        return batchListener.listenResult(records, context);
+                    } finally {
+                        if (logContext != null) {
+                            MDC.clear();
+                        }
+                    }
+                }, coordinator);
+            } catch (Throwable tr) {
+                permits.release();
+                throw tr;
+            }
+
+            CompletableFuture<KafkaBatchResult<K, V>> result = done.handle((r, tr) -> {
+                permits.release();
+
+                if (tr != null) {
+                    LOGGER.error("submit failed, throwable: ", tr);
+                    return KafkaBatchResult.failure(records);
+                } else {
+                    return r;
+                }
+            });
+
+            for (TopicPartition partition : partitions) {
+                partitionTails.put(partition, result);
+            }
+
+            result.whenComplete((r, tr) -> removePartitionTails(partitions, result));
+
+            tail = tail.handle((r, tr) -> r).thenCombine(result, (r, current) -> {
+                complete(current);
+                return current;
+            });
+
+            return tail;
+        }
+    }
+
+    /**
+     * 提交已完成批次的位移，消费失败时，回退位移
+     * 在监听线程调用
+     *
+     * @param consumer 监听线程的消费者
+     * @param records  当前批次的消息列表，回退时被丢弃
+     * @return 未回退？
+     */
+    public boolean commit(Consumer<?, ?> consumer, @Nullable List<ConsumerRecord<K, V>> records) {
+        return commit(consumer, records, Collections.emptySet(), false);
+    }
+
+    /**
+     * 提交已完成批次的位移，消费失败时，回退位移
+     *
+     * @param consumer 监听线程的消费者
+     * @param records  当前批次的消息列表，回退时被丢弃
+     * @param revoked  回收的分区，不回退
+     * @param sync     同步提交？
+     * @return 未回退？
+     */
+    private boolean commit(Consumer<?, ?> consumer,
+                           @Nullable List<ConsumerRecord<K, V>> records,
+                           Collection<TopicPartition> revoked,
+                           boolean sync) {
+        boolean rewind;
+        synchronized (this) {
+            rewind = halted;
+        }
+
+        if (!rewind) {
+            Map<TopicPartition, OffsetAndMetadata> committable = drainOffsets();
+            if (committable.isEmpty()) {
+                return true;
+            }
+
+            if (sync) {
+                consumer.commitSync(committable);
+            } else {
+                consumer.commitAsync(committable, (o, tr) -> {
+                    if (tr != null) {
+                        LOGGER.error("commit failed, offsets: {}, throwable: ", o, tr);
+                    }
+                });
+            }
+
+            return true;
+        }
+
+        await();
+
+        Map<TopicPartition, OffsetAndMetadata> committable;
+        Map<TopicPartition, Long> seeks;
+        synchronized (this) {
+            addSeekOffsets(records);
+
+            committable = drainOffsets();
+            seeks = new HashMap<>(seekOffsets);
+
+            seekOffsets.clear();
+            partitionTails.clear();
+            halted = false;
+            tail = CompletableFuture.completedFuture(null);
+        }
+
+        if (!committable.isEmpty()) {
+            consumer.commitSync(committable);
+        }
+
+        seeks.keySet().removeAll(revoked);
+        for (Map.Entry<TopicPartition, Long> e : seeks.entrySet()) {
+            consumer.seek(e.getKey(), e.getValue());
+        }
+
+        LOGGER.warn("commit warning, rewind, offsets: {}", seeks);
+        return false;
+    }
+
+    /**
+     * 批次的分区，只有分发模式为 PARTITION 或 KEY 时，需保持分区内的顺序
+     *
+     * @param records 消息列表
+     * @return 分区集，不需保持顺序？返回空集
+     */
+    private Set<TopicPartition> partitionsOf(List<ConsumerRecord<K, V>> records) {
+        if (batchListener.getDispatchMode() == KafkaDispatchMode.PAGE) {
+            return Collections.emptySet();
+        }
+
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (ConsumerRecord<K, V> r : records) {
+            if (r != null) {
+                partitions.add(new TopicPartition(r.topic(), r.partition()));
+            }
+        }
+
+        return partitions;
+    }
+
+    /**
+     * 分区相同的之前批次，全部完成后，再消费当前批次
+     *
+     * @param partitions 当前批次的分区集
+     * @return 之前批次的消费结果
+     */
+    private CompletableFuture<?> previousOf(Set<TopicPartition> partitions) {
+        List<CompletableFuture<?>> previous = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            CompletableFuture<?> f = partitionTails.get(partition);
+            if (f != null && !previous.contains(f)) {
+                previous.add(f);
+            }
+        }
+
+        if (previous.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        } else if (previous.size() == 1) {
+            return previous.get(0);
+        } else {
+            return CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[0]));
+        }
+    }
+
+    /**
+     * 批次完成，移除分区的最后一个批次
+     *
+     * @param partitions 批次的分区集
+     * @param result     批次的消费结果
+     */
+    private synchronized void removePartitionTails(Set<TopicPartition> partitions, CompletableFuture<KafkaBatchResult<K, V>> result) {
+        for (TopicPartition partition : partitions) {
+            partitionTails.remove(partition, result);
+        }
+    }
+
+    /**
+     * 协调线程，守护线程，空闲 1 分钟回收
+     *
+     * @param maxInFlight 同时消费的最大批次数
+     * @return 协调线程
+     */
+    private static Executor newCoordinator(int maxInFlight) {
+        Assert.isTrue(maxInFlight > 0, "maxInFlight must be greater than 0");
+
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                1L, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "kafka-pipeline-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 按提交顺序，合并一个批次的消费结果
+     *
+     * @param result 批量消费结果
+     */
+    private synchronized void complete(KafkaBatchResult<K, V> result) {
+        if (halted) {
+            addSeekOffsets(result.getRecords());
+            return;
+        }
+
+        offsets.putAll(result.getOffsets());
+
+        if (!result.isSuccess()) {
+            halt(result);
+        }
+    }
+
+    /**
+     * 消费失败，之后的批次全部丢弃，等待回退
+     *
+     * @param result 消费失败的批量消费结果
+     */
+    private void halt(KafkaBatchResult<K, V> result) {
+        halted = true;
+
+        Map<TopicPartition, OffsetAndMetadata> committed = result.getOffsets();
+        for (ConsumerRecord<K, V> r : result.getRecords()) {
+            TopicPartition partition = new TopicPartition(r.topic(), r.partition());
+            if (!seekOffsets.containsKey(partition)) {
+                OffsetAndMetadata o = committed.get(partition);
+                seekOffsets.put(partition, o != null ? o.offset() : r.offset());
+            }
+        }
+    }
+
+    /**
+     * 被丢弃的消息，每分区回退到首条消息
+     *
+     * @param records 消息列表
+     */
+    private void addSeekOffsets(@Nullable List<ConsumerRecord<K, V>> records) {
+        if (records == null) {
+            return;
+        }
+
+        for (ConsumerRecord<K, V> r : records) {
+            if (r != null) {
+                seekOffsets.putIfAbsent(new TopicPartition(r.topic(), r.partition()), r.offset());
+            }
+        }
+    }
+
+    /**
+     * 取出待提交的位移
+     *
+     * @return 分区和位移
+     */
+    private synchronized Map<TopicPartition, OffsetAndMetadata> drainOffsets() {
+        if (offsets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>(offsets);
+        offsets.clear();
+        return result;
+    }
+
+    /**
+     * 等待全部批次完成
+     */
+    private void await() {
+        CompletableFuture<KafkaBatchResult<K, V>> last;
+        synchronized (this) {
+            last = tail;
+        }
+
+        try {
+            last.join();
+        } catch (Throwable tr) {
+            LOGGER.error("await failed, throwable: ", tr);
+        }
+    }
+
+    public KafkaBatchListener<K, V> getBatchListener() {
+        return batchListener;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Executor getCoordinator() {
+        return coordinator;
+    }
+
+}
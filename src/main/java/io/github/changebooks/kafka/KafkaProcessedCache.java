@@ -0,0 +1,318 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 已消费的消息
+ * 按分区记录已消费的位移，每个分区一个位图，只保留最近的位移窗口，位图只占 窗口 / 8 字节；可选按业务键记录，最近最少使用淘汰
+ * 重新投递时，跳过已消费的消息，只消费未消费的消息
+ * 超出窗口或已淘汰的消息，视为未消费，再次消费，不会误跳过
+ * 需注册为容器的 consumerRebalanceListener，分区回收、丢失或分配时，清除该分区，新分配的分区从已提交的位移重新记录
+ * 投递的位移小于窗口、且超出窗口可容纳的范围时，视为位移重置，清除该分区
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaProcessedCache implements ConsumerAwareRebalanceListener {
+    /**
+     * 每个分区记录的位移数
+     */
+    private final int window;
+
+    /**
+     * 分区 -> 已消费的位移
+     */
+    private final Map<TopicPartition, OffsetWindow> partitions = new HashMap<>();
+
+    /**
+     * 业务键，空？不按业务键记录
+     */
+    private final Function<ConsumerRecord<?, ?>, Object> keyExtractor;
+
+    /**
+     * 已消费的业务键，最近最少使用淘汰
+     */
+    private final Map<Object, Boolean> keys;
+
+    public KafkaProcessedCache(int window) {
+        this(window, null, 0);
+    }
+
+    /**
+     * @param window       每个分区记录的位移数，如：max.poll.records 的数倍
+     * @param keyExtractor 业务键，如：消息id标头，相同业务键的消息视为同一条消息，空？不按业务键记录
+     * @param maxKeys      最多记录的业务键数
+     */
+    public KafkaProcessedCache(int window, @Nullable Function<ConsumerRecord<?, ?>, Object> keyExtractor, int maxKeys) {
+        Assert.isTrue(window > 0, "window must be greater than 0");
+        Assert.isTrue(keyExtractor == null || maxKeys > 0, "maxKeys must be greater than 0");
+
+        this.window = window;
+        this.keyExtractor = keyExtractor;
+        this.keys = keyExtractor == null ? null : new LinkedHashMap<Object, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    /**
+     * 过滤已消费的消息
+     *
+     * @param records 消息列表
+     * @param <K>     Key
+     * @param <V>     Value
+     * @return 未消费的消息，保持原有顺序，全部未消费？返回 消息列表
+     */
+    public synchronized <K, V> List<ConsumerRecord<K, V>> filter(List<ConsumerRecord<K, V>> records) {
+        List<ConsumerRecord<K, V>> result = null;
+
+        int size = records.size();
+        for (int i = 0; i < size; i++) {
+            ConsumerRecord<K, V> r = records.get(i);
+            if (isProcessed(r)) {
+                if (result == null) {
+                    result = new ArrayList<>(records.subList(0, i));
+                }
+            } else if (result != null) {
+                result.add(r);
+            }
+        }
+
+        return result != null ? result : records;
+    }
+
+    /**
+     * 已消费？
+     *
+     * @param record 消息
+     * @return 已消费？
+     */
+    public synchronized boolean isProcessed(ConsumerRecord<?, ?> record) {
+        TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+        OffsetWindow w = partitions.get(tp);
+        if (w != null) {
+            if (w.isReset(record.offset())) {
+                // 位移重置，如：seek、auto.offset.reset，窗口中的位移不再可信
+                partitions.remove(tp);
+            } else if (w.contains(record.offset())) {
+                return true;
+            }
+        }
+
+        if (keys != null) {
+            Object key = keyExtractor.apply(record);
+            return key != null && keys.get(key) != null;
+        }
+
+        return false;
+    }
+
+    /**
+     * 记录已消费的消息
+     *
+     * @param records 消费成功的消息列表
+     */
+    public synchronized void markAll(List<? extends ConsumerRecord<?, ?>> records) {
+        TopicPartition tp = null;
+        OffsetWindow w = null;
+
+        for (ConsumerRecord<?, ?> r : records) {
+            // 同一分页的消息，通常属于同一分区
+            if (tp == null || r.partition() != tp.partition() || !r.topic().equals(tp.topic())) {
+                tp = new TopicPartition(r.topic(), r.partition());
+                w = partitions.computeIfAbsent(tp, k -> new OffsetWindow(window));
+            }
+
+            w.mark(r.offset());
+
+            if (keys != null) {
+                Object key = keyExtractor.apply(r);
+                if (key != null) {
+                    keys.put(key, Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    /**
+     * 分区回收之前，清除回收的分区
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 回收的分区
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        clear(partitions);
+    }
+
+    /**
+     * 分区丢失，清除丢失的分区
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 丢失的分区
+     */
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        clear(partitions);
+    }
+
+    /**
+     * 分区分配，清除分配的分区，其它消费者可能已消费或重置了位移
+     *
+     * @param consumer   监听线程的消费者
+     * @param partitions 分配的分区
+     */
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        clear(partitions);
+    }
+
+    /**
+     * 清除一个分区，如：分区重新分配、位移重置
+     *
+     * @param partition 分区
+     */
+    public synchronized void clear(TopicPartition partition) {
+        partitions.remove(partition);
+    }
+
+    /**
+     * 清除多个分区
+     *
+     * @param partitions 分区列表
+     */
+    public synchronized void clear(@Nullable Collection<TopicPartition> partitions) {
+        if (partitions == null) {
+            return;
+        }
+
+        for (TopicPartition tp : partitions) {
+            this.partitions.remove(tp);
+        }
+    }
+
+    /**
+     * 清除全部
+     */
+    public synchronized void clear() {
+        partitions.clear();
+
+        if (keys != null) {
+            keys.clear();
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * 一个分区的位移窗口
+     * 位图覆盖 [起始位移, 起始位移 + 窗口)，记录更大的位移时，窗口向前滑动
+     */
+    private static final class OffsetWindow {
+        /**
+         * 窗口大小
+         */
+        final int size;
+
+        /**
+         * 已消费的位移，下标 = 位移 - 起始位移
+         */
+        BitSet bits;
+
+        /**
+         * 起始位移，-1：未记录
+         */
+        long base = -1L;
+
+        /**
+         * 已记录的最大位移
+         */
+        long max = -1L;
+
+        OffsetWindow(int size) {
+            this.size = size;
+            this.bits = new BitSet();
+        }
+
+        boolean contains(long offset) {
+            return base >= 0 && offset >= base && offset < base + size && bits.get((int) (offset - base));
+        }
+
+        /**
+         * 位移重置？小于起始位移，且超出窗口可容纳的范围，不是较晚完成的较早分页
+         *
+         * @param offset 位移
+         * @return 位移重置？
+         */
+        boolean isReset(long offset) {
+            return base >= 0 && offset < base && max - offset >= size;
+        }
+
+        void mark(long offset) {
+            if (base < 0) {
+                base = offset;
+            } else if (offset < base) {
+                // 多线程消费时，较早的分页可能较晚完成，窗口能容纳时，向后扩展，否则，视为未消费
+                if (max - offset >= size) {
+                    return;
+                }
+
+                expand(offset);
+            } else if (offset >= base + size) {
+                slide(offset - size + 1);
+            }
+
+            bits.set((int) (offset - base));
+            max = Math.max(max, offset);
+        }
+
+        /**
+         * 窗口向后扩展
+         *
+         * @param newBase 新的起始位移
+         */
+        void expand(long newBase) {
+            int shift = (int) (base - newBase);
+
+            BitSet expanded = new BitSet();
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                expanded.set(i + shift);
+            }
+
+            bits = expanded;
+            base = newBase;
+        }
+
+        /**
+         * 窗口向前滑动
+         *
+         * @param newBase 新的起始位移
+         */
+        void slide(long newBase) {
+            long shift = newBase - base;
+            bits = shift >= size ? new BitSet() : bits.get((int) shift, size);
+            base = newBase;
+        }
+
+    }
+
+}
@@ -0,0 +1,300 @@
+package io.github.changebooks.kafka;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分页重试策略
+ * 分页消费失败时，在原线程内退避后重试，只重试失败的分页，不影响其它分页的结果
+ * 退避时间 = MIN(初始退避时间 * 倍数 ^ (已消费次数 - 1), 最大退避时间) * (1 ± 抖动比例)
+ * 批次开始后，超过总时间预算，不再重试，总时间预算小于 max.poll.interval.ms
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaRetryPolicy {
+    /**
+     * 原因链的最大深度，防止循环引用（如：A 的原因是 B，B 的原因是 A）无限遍历
+     */
+    private static final int MAX_CAUSE_DEPTH = 32;
+
+    /**
+     * 最多消费次数，包括首次消费
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 初始退避时间，毫秒
+     */
+    private long initialBackoff = 100L;
+
+    /**
+     * 退避时间的倍数
+     */
+    private double multiplier = 2.0;
+
+    /**
+     * 最大退避时间，毫秒
+     */
+    private long maxBackoff = 5000L;
+
+    /**
+     * 抖动比例，0：不抖动
+     */
+    private double jitter = 0.5;
+
+    /**
+     * 总时间预算，毫秒，从批次开始计时，0：不限制
+     */
+    private long maxElapsed = 0L;
+
+    /**
+     * 消费接口返回 false 时，重试？
+     */
+    private boolean retryOnFalse = true;
+
+    /**
+     * 可重试的异常，空？除不可重试的异常外，全部重试
+     */
+    private final List<Class<? extends Throwable>> retryableExceptions = new ArrayList<>();
+
+    /**
+     * 不可重试的异常，优先于可重试的异常
+     */
+    private final List<Class<? extends Throwable>> notRetryableExceptions = new ArrayList<>();
+
+    /**
+     * 重试？
+     *
+     * @param attempts 已消费次数
+     * @param cause    异常，空？消费接口返回 false
+     * @param elapsed  批次开始后的耗时，纳秒
+     * @param backoff  下一次的退避时间，毫秒
+     * @return 未超过最多消费次数、未超过总时间预算、可重试的异常？
+     */
+    public boolean canRetry(int attempts, @Nullable Throwable cause, long elapsed, long backoff) {
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+
+        if (maxElapsed > 0 && TimeUnit.NANOSECONDS.toMillis(elapsed) + backoff >= maxElapsed) {
+            return false;
+        }
+
+        return isRetryable(cause);
+    }
+
+    /**
+     * 可重试？
+     * 按异常及其原因链匹配，不可重试的异常优先
+     *
+     * @param cause 异常，空？消费接口返回 false
+     * @return 可重试？
+     */
+    public boolean isRetryable(@Nullable Throwable cause) {
+        if (cause == null) {
+            return retryOnFalse;
+        }
+
+        if (matches(cause, notRetryableExceptions)) {
+            return false;
+        }
+
+        return retryableExceptions.isEmpty() || matches(cause, retryableExceptions);
+    }
+
+    /**
+     * 计算退避时间
+     *
+     * @param attempts 已消费次数
+     * @return 退避时间，毫秒
+     */
+    public long backoff(int attempts) {
+        double backoff = initialBackoff * Math.pow(multiplier, Math.max(attempts - 1, 0));
+        backoff = Math.min(backoff, maxBackoff);
+
+        if (jitter > 0) {
+            backoff *= 1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        }
+
+        return Math.max((long) backoff, 0L);
+    }
+
+    /**
+     * 异常或其原因链，属于异常列表之一？
+     * 最多遍历 {@link #MAX_CAUSE_DEPTH} 层原因
+     *
+     * @param cause      异常
+     * @param exceptions 异常列表
+     * @return 属于？
+     */
+    private static boolean matches(Throwable cause, List<Class<? extends Throwable>> exceptions) {
+        Throwable t = cause;
+        for (int depth = 0; t != null && depth < MAX_CAUSE_DEPTH; depth++, t = t.getCause()) {
+            for (Class<? extends Throwable> c : exceptions) {
+                if (c.isInstance(t)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 设置最多消费次数
+     *
+     * @param maxAttempts 最多消费次数，包括首次消费，1：不重试
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setMaxAttempts(int maxAttempts) {
+        Assert.isTrue(maxAttempts > 0, "maxAttempts must be greater than 0");
+
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * 设置初始退避时间
+     *
+     * @param initialBackoff 初始退避时间，毫秒
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setInitialBackoff(long initialBackoff) {
+        Assert.isTrue(initialBackoff >= 0, "initialBackoff can't be less than 0");
+
+        this.initialBackoff = initialBackoff;
+        return this;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * 设置退避时间的倍数
+     *
+     * @param multiplier 倍数，1：固定退避时间
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setMultiplier(double multiplier) {
+        Assert.isTrue(multiplier >= 1, "multiplier can't be less than 1");
+
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * 设置最大退避时间
+     *
+     * @param maxBackoff 最大退避时间，毫秒
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setMaxBackoff(long maxBackoff) {
+        Assert.isTrue(maxBackoff >= 0, "maxBackoff can't be less than 0");
+
+        this.maxBackoff = maxBackoff;
+        return this;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * 设置抖动比例
+     * 避免多个分页同时失败后，同时重试
+     *
+     * @param jitter 抖动比例，[0, 1]
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setJitter(double jitter) {
+        Assert.isTrue(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+
+        this.jitter = jitter;
+        return this;
+    }
+
+    public long getMaxElapsed() {
+        return maxElapsed;
+    }
+
+    /**
+     * 设置总时间预算
+     *
+     * @param maxElapsed 总时间预算，毫秒，从批次开始计时，小于 max.poll.interval.ms，0：不限制
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setMaxElapsed(long maxElapsed) {
+        Assert.isTrue(maxElapsed >= 0, "maxElapsed can't be less than 0");
+
+        this.maxElapsed = maxElapsed;
+        return this;
+    }
+
+    public boolean isRetryOnFalse() {
+        return retryOnFalse;
+    }
+
+    /**
+     * 设置消费接口返回 false 时，重试？
+     *
+     * @param retryOnFalse 重试？
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy setRetryOnFalse(boolean retryOnFalse) {
+        this.retryOnFalse = retryOnFalse;
+        return this;
+    }
+
+    public List<Class<? extends Throwable>> getRetryableExceptions() {
+        return retryableExceptions;
+    }
+
+    /**
+     * 新增可重试的异常
+     *
+     * @param exception 异常类，包括子类
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy addRetryableException(Class<? extends Throwable> exception) {
+        Assert.notNull(exception, "exception can't be null");
+
+        retryableExceptions.add(exception);
+        return this;
+    }
+
+    public List<Class<? extends Throwable>> getNotRetryableExceptions() {
+        return notRetryableExceptions;
+    }
+
+    /**
+     * 新增不可重试的异常，如：反序列化失败、参数错误
+     *
+     * @param exception 异常类，包括子类
+     * @return the {@link KafkaRetryPolicy} instance
+     */
+    public KafkaRetryPolicy addNotRetryableException(Class<? extends Throwable> exception) {
+        Assert.notNull(exception, "exception can't be null");
+
+        notRetryableExceptions.add(exception);
+        return this;
+    }
+
+}
@@ -0,0 +1,114 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量发送结果
+ * 按下标记录每条消息的发送结果或失败原因
+ *
+ * @param <K> Key
+ * @param <V> Value
+ * @author changebooks@qq.com
+ */
+public final class KafkaSendResult<K, V> {
+    /**
+     * 消息列表
+     */
+    private final List<ProducerRecord<K, V>> records;
+
+    /**
+     * 发送结果，失败？空
+     */
+    private final Object[] results;
+
+    /**
+     * 失败原因，成功？空
+     */
+    private final Throwable[] exceptions;
+
+    KafkaSendResult(List<ProducerRecord<K, V>> records) {
+        this.records = records != null ? records : Collections.emptyList();
+        this.results = new Object[this.records.size()];
+        this.exceptions = new Throwable[this.records.size()];
+    }
+
+    /**
+     * 设置一条消息的发送结果
+     *
+     * @param index     下标
+     * @param result    发送结果
+     * @param exception 失败原因
+     */
+    void set(int index, SendResult<K, V> result, Throwable exception) {
+        results[index] = result;
+        exceptions[index] = exception;
+    }
+
+    /**
+     * 全部发送成功？
+     *
+     * @return 全部成功？
+     */
+    public boolean isSuccess() {
+        for (Throwable e : exceptions) {
+            if (e != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 获取一条消息的发送结果
+     *
+     * @param index 下标
+     * @return 发送结果，失败？空
+     */
+    @SuppressWarnings("unchecked")
+    public SendResult<K, V> getResult(int index) {
+        return (SendResult<K, V>) results[index];
+    }
+
+    /**
+     * 获取一条消息的失败原因
+     *
+     * @param index 下标
+     * @return 失败原因，成功？空
+     */
+    public Throwable getException(int index) {
+        return exceptions[index];
+    }
+
+    /**
+     * 获取发送失败的消息，可重新发送
+     *
+     * @return 发送失败的消息，保持原有顺序
+     */
+    public List<ProducerRecord<K, V>> getFailedRecords() {
+        List<ProducerRecord<K, V>> result = new ArrayList<>();
+
+        int size = records.size();
+        for (int i = 0; i < size; i++) {
+            if (exceptions[i] != null) {
+                result.add(records.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public List<ProducerRecord<K, V>> getRecords() {
+        return records;
+    }
+
+}
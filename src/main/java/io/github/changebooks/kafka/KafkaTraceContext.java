@@ -0,0 +1,499 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * 日志上下文的二进制标头
+ * 一个定长标头，同时携带追溯id和日志id，代替两个字符串标头
+ * 格式：版本（1 字节）、id 格式（1 字节）、追溯id（16 字节）、日志id（16 字节），共 34 字节
+ * id 格式：32 位小写十六进制，或 UUID 格式（8-4-4-4-12）的小写十六进制，解码后与原 id 相同
+ * 读取时，依次读取二进制标头、字符串标头（log_tid、log_id）、W3C traceparent 标头
+ * 发送时，只保留所选格式的标头，移除其它格式已有的标头，避免接收方读取过期的 id
+ *
+ * @author changebooks@qq.com
+ */
+public final class KafkaTraceContext {
+    /**
+     * 键名
+     */
+    public static final String KEY_NAME = "log_ctx";
+
+    /**
+     * W3C 链路追踪的键名
+     */
+    public static final String TRACEPARENT = "traceparent";
+
+    /**
+     * 版本
+     */
+    public static final byte VERSION = 0;
+
+    /**
+     * 字节数
+     */
+    public static final int SIZE = 34;
+
+    /**
+     * id 格式：32 位十六进制
+     */
+    private static final int FORMAT_HEX = 0;
+
+    /**
+     * id 格式：UUID，8-4-4-4-12
+     */
+    private static final int FORMAT_UUID = 1;
+
+    /**
+     * 每个 id 的字节数
+     */
+    private static final int ID_SIZE = 16;
+
+    /**
+     * traceparent 的字符数：版本-追溯id-父id-标志
+     */
+    private static final int TRACEPARENT_SIZE = 55;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 追溯id
+     */
+    private final String traceId;
+
+    /**
+     * 日志id
+     */
+    private final String logId;
+
+    private KafkaTraceContext(String traceId, String logId) {
+        this.traceId = traceId;
+        this.logId = logId;
+    }
+
+    /**
+     * 发送之前
+     * 从日志上下文获取追溯id和日志id，按格式设置待发送消息
+     * 日志上下文没有 id 时，沿用消息已有的 id，仍没有时，初始化
+     *
+     * @param headers 待发送的消息的标头
+     * @param format  标头格式
+     */
+    public static void onSend(Headers headers, KafkaHeaderFormat format) {
+        Objects.requireNonNull(headers, "headers can't be null");
+        Objects.requireNonNull(format, "format can't be null");
+
+        String traceId = traceIdOf(headers);
+        String logId = logIdOf(headers);
+
+        Encoded e = format == KafkaHeaderFormat.STRING ? null : encoded(traceId, logId);
+        if (e == null) {
+            // 字符串格式，或 id 不能定长编码
+            setString(headers, traceId, logId);
+            return;
+        }
+
+        headers.remove(KafkaTraceId.KEY_NAME);
+        headers.remove(KafkaLogId.KEY_NAME);
+        headers.remove(KEY_NAME);
+        headers.remove(TRACEPARENT);
+        headers.add(KEY_NAME, e.bytes);
+
+        if (format == KafkaHeaderFormat.BINARY_TRACEPARENT) {
+            headers.add(TRACEPARENT, e.traceparent());
+        }
+    }
+
+    /**
+     * 设置字符串标头，移除已有的二进制标头和 traceparent 标头
+     *
+     * @param headers 待发送的消息的标头
+     * @param traceId 追溯id
+     * @param logId   日志id
+     */
+    private static void setString(Headers headers, String traceId, String logId) {
+        headers.remove(KEY_NAME);
+        headers.remove(TRACEPARENT);
+        headers.remove(KafkaTraceId.KEY_NAME);
+        headers.remove(KafkaLogId.KEY_NAME);
+        KafkaHeaders.set(headers, KafkaTraceId.KEY_NAME, traceId);
+        KafkaHeaders.set(headers, KafkaLogId.KEY_NAME, logId);
+    }
+
+    /**
+     * 发送时的追溯id
+     * 从日志上下文获取，没有时，沿用消息已有的追溯id，仍没有时，初始化
+     *
+     * @param headers 待发送的消息的标头，可为空
+     * @return 追溯id
+     */
+    static String traceIdOf(Headers headers) {
+        String traceId = LogTraceId.get();
+        if (StringUtils.hasText(traceId)) {
+            return traceId;
+        }
+
+        traceId = getTraceId(headers);
+        if (StringUtils.hasText(traceId)) {
+            return traceId;
+        }
+
+        LogTraceId.init();
+        return LogTraceId.get();
+    }
+
+    /**
+     * 发送时的日志id
+     * 从日志上下文获取，没有时，沿用消息已有的日志id，仍没有时，初始化
+     *
+     * @param headers 待发送的消息的标头，可为空
+     * @return 日志id
+     */
+    static String logIdOf(Headers headers) {
+        String logId = LogId.get();
+        if (StringUtils.hasText(logId)) {
+            return logId;
+        }
+
+        logId = getLogId(headers);
+        if (StringUtils.hasText(logId)) {
+            return logId;
+        }
+
+        LogId.init();
+        return LogId.get();
+    }
+
+    /**
+     * 获取追溯id
+     * 依次读取二进制标头、字符串标头、traceparent 标头
+     *
+     * @param headers 标头
+     * @return 追溯id，没有？返回 null
+     */
+    public static String getTraceId(Headers headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        KafkaTraceContext c = decode(valueOf(headers.lastHeader(KEY_NAME)));
+        if (c != null) {
+            return c.traceId;
+        }
+
+        String traceId = decodeString(valueOf(headers.lastHeader(KafkaTraceId.KEY_NAME)));
+        if (StringUtils.hasText(traceId)) {
+            return traceId;
+        }
+
+        c = decodeTraceparent(valueOf(headers.lastHeader(TRACEPARENT)));
+        return c != null ? c.traceId : null;
+    }
+
+    /**
+     * 获取日志id
+     * 依次读取二进制标头、字符串标头、traceparent 标头（父id）
+     *
+     * @param headers 标头
+     * @return 日志id，没有？返回 null
+     */
+    public static String getLogId(Headers headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        KafkaTraceContext c = decode(valueOf(headers.lastHeader(KEY_NAME)));
+        if (c != null) {
+            return c.logId;
+        }
+
+        String logId = decodeString(valueOf(headers.lastHeader(KafkaLogId.KEY_NAME)));
+        if (StringUtils.hasText(logId)) {
+            return logId;
+        }
+
+        c = decodeTraceparent(valueOf(headers.lastHeader(TRACEPARENT)));
+        return c != null ? c.logId : null;
+    }
+
+    /**
+     * 编码
+     *
+     * @param traceId 追溯id
+     * @param logId   日志id
+     * @return 二进制标头的值，id 不能定长编码？返回 null
+     */
+    public static byte[] encode(String traceId, String logId) {
+        Encoded e = encoded(traceId, logId);
+        return e != null ? e.bytes : null;
+    }
+
+    /**
+     * 解码
+     *
+     * @param value 二进制标头的值
+     * @return 日志上下文，格式不符？返回 null
+     */
+    public static KafkaTraceContext decode(byte[] value) {
+        if (value == null || value.length != SIZE || value[0] != VERSION) {
+            return null;
+        }
+
+        int traceFormat = value[1] & 0x03;
+        int logFormat = (value[1] >> 2) & 0x03;
+        if (traceFormat > FORMAT_UUID || logFormat > FORMAT_UUID) {
+            return null;
+        }
+
+        return new KafkaTraceContext(
+                toString(value, 2, traceFormat),
+                toString(value, 2 + ID_SIZE, logFormat));
+    }
+
+    /**
+     * 解码字符串标头，如：log_tid、log_id
+     *
+     * @param value 字符串标头的值，UTF-8
+     * @return 字符串，空？返回 null
+     */
+    public static String decodeString(byte[] value) {
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * 解码 traceparent，如：00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01
+     * 追溯id：32 位十六进制，日志id：父id，16 位十六进制
+     *
+     * @param value traceparent 标头的值
+     * @return 日志上下文，格式不符？返回 null
+     */
+    public static KafkaTraceContext decodeTraceparent(byte[] value) {
+        if (value == null || value.length < TRACEPARENT_SIZE) {
+            return null;
+        }
+
+        String s = new String(value, StandardCharsets.US_ASCII);
+        if (s.charAt(2) != '-' || s.charAt(35) != '-' || s.charAt(52) != '-' || s.startsWith("ff")) {
+            return null;
+        }
+
+        // 未来版本可在末尾追加字段，只读取已知字段
+        if (value.length > TRACEPARENT_SIZE && (s.startsWith("00") || s.charAt(TRACEPARENT_SIZE) != '-')) {
+            return null;
+        }
+
+        String traceId = s.substring(3, 35);
+        String parentId = s.substring(36, 52);
+        if (!isHex(s.substring(0, 2)) || !isHex(traceId) || !isHex(parentId) || !isHex(s.substring(53, 55))) {
+            return null;
+        }
+
+        if (isZero(traceId) || isZero(parentId)) {
+            return null;
+        }
+
+        return new KafkaTraceContext(traceId, parentId);
+    }
+
+    /**
+     * 编码
+     *
+     * @param traceId 追溯id
+     * @param logId   日志id
+     * @return 已编码的值，id 不能定长编码？返回 null
+     */
+    private static Encoded encoded(String traceId, String logId) {
+        if (traceId == null || logId == null) {
+            return null;
+        }
+
+        int traceFormat = formatOf(traceId);
+        int logFormat = formatOf(logId);
+        if (traceFormat < 0 || logFormat < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[SIZE];
+        bytes[0] = VERSION;
+        bytes[1] = (byte) (traceFormat | (logFormat << 2));
+
+        if (!parse(traceId, bytes, 2) || !parse(logId, bytes, 2 + ID_SIZE)) {
+            return null;
+        }
+
+        return new Encoded(bytes);
+    }
+
+    /**
+     * id 格式
+     *
+     * @param id 追溯id 或 日志id
+     * @return 格式，不能定长编码？返回 -1
+     */
+    private static int formatOf(String id) {
+        int len = id.length();
+        if (len == ID_SIZE * 2) {
+            return FORMAT_HEX;
+        }
+
+        if (len == ID_SIZE * 2 + 4 &&
+                id.charAt(8) == '-' && id.charAt(13) == '-' && id.charAt(18) == '-' && id.charAt(23) == '-') {
+            return FORMAT_UUID;
+        }
+
+        return -1;
+    }
+
+    /**
+     * 十六进制的 id 转为 16 字节，跳过 UUID 的分隔符
+     *
+     * @param id     追溯id 或 日志id
+     * @param bytes  目标
+     * @param offset 目标的起始下标
+     * @return 都是小写十六进制？
+     */
+    private static boolean parse(String id, byte[] bytes, int offset) {
+        int high = -1;
+
+        for (int i = 0, len = id.length(); i < len; i++) {
+            char ch = id.charAt(i);
+            if (len != ID_SIZE * 2 && (i == 8 || i == 13 || i == 18 || i == 23)) {
+                continue;
+            }
+
+            int digit = digit(ch);
+            if (digit < 0) {
+                return false;
+            }
+
+            if (high < 0) {
+                high = digit;
+            } else {
+                bytes[offset++] = (byte) ((high << 4) | digit);
+                high = -1;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 16 字节转为十六进制的 id
+     *
+     * @param bytes  二进制标头的值
+     * @param offset 起始下标
+     * @param format id 格式
+     * @return 追溯id 或 日志id
+     */
+    private static String toString(byte[] bytes, int offset, int format) {
+        char[] chars = new char[format == FORMAT_UUID ? ID_SIZE * 2 + 4 : ID_SIZE * 2];
+
+        int index = 0;
+        for (int i = 0; i < ID_SIZE; i++) {
+            if (format == FORMAT_UUID && (i == 4 || i == 6 || i == 8 || i == 10)) {
+                chars[index++] = '-';
+            }
+
+            int b = bytes[offset + i] & 0xff;
+            chars[index++] = HEX[b >>> 4];
+            chars[index++] = HEX[b & 0x0f];
+        }
+
+        return new String(chars);
+    }
+
+    private static int digit(char ch) {
+        if (ch >= '0' && ch <= '9') {
+            return ch - '0';
+        } else if (ch >= 'a' && ch <= 'f') {
+            return ch - 'a' + 10;
+        } else {
+            return -1;
+        }
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0, len = s.length(); i < len; i++) {
+            if (digit(s.charAt(i)) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isZero(String s) {
+        for (int i = 0, len = s.length(); i < len; i++) {
+            if (s.charAt(i) != '0') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] valueOf(Header header) {
+        return header != null ? header.value() : null;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getLogId() {
+        return logId;
+    }
+
+    /**
+     * 已编码的值
+     */
+    private static final class Encoded {
+        /**
+         * 二进制标头的值
+         */
+        final byte[] bytes;
+
+        Encoded(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * traceparent：00-追溯id-日志id 的前 8 字节-01
+         *
+         * @return traceparent 标头的值
+         */
+        byte[] traceparent() {
+            byte[] value = new byte[TRACEPARENT_SIZE];
+            value[0] = '0';
+            value[1] = '0';
+            value[2] = '-';
+
+            int index = 3;
+            for (int i = 0; i < ID_SIZE; i++) {
+                int b = bytes[2 + i] & 0xff;
+                value[index++] = (byte) HEX[b >>> 4];
+                value[index++] = (byte) HEX[b & 0x0f];
+            }
+
+            value[index++] = '-';
+            for (int i = 0; i < ID_SIZE / 2; i++) {
+                int b = bytes[2 + ID_SIZE + i] & 0xff;
+                value[index++] = (byte) HEX[b >>> 4];
+                value[index++] = (byte) HEX[b & 0x0f];
+            }
+
+            value[index++] = '-';
+            value[index++] = '0';
+            value[index] = '1';
+            return value;
+        }
+
+    }
+
+}
@@ -29,7 +29,7 @@ public final class KafkaTraceId {
     public static void onConsume(Headers headers) {
         Objects.requireNonNull(headers, "headers can't be null");
 
-        String traceId = KafkaHeaders.get(headers, KEY_NAME);
+        String traceId = KafkaTraceContext.getTraceId(headers);
         if (StringUtils.hasText(traceId)) {
             LogTraceId.set(traceId);
         } else {
@@ -40,6 +40,7 @@ public final class KafkaTraceId {
     /**
      * 发送之前
      * 从日志上下文获取追溯id，设置待发送消息
+     * 替换已有的追溯id标头，不重复新增
      *
      * @param headers 待发送的消息的标头
      */
@@ -48,17 +49,19 @@ public final class KafkaTraceId {
 
         String traceId = LogTraceId.get();
         if (StringUtils.hasText(traceId)) {
+            headers.remove(KEY_NAME);
             KafkaHeaders.set(headers, KEY_NAME, traceId);
             return;
         }
 
-        traceId = KafkaHeaders.get(headers, KEY_NAME);
+        traceId = KafkaTraceContext.getTraceId(headers);
         if (StringUtils.hasText(traceId)) {
             return;
         }
 
         LogTraceId.init();
         traceId = LogTraceId.get();
+        headers.remove(KEY_NAME);
         KafkaHeaders.set(headers, KEY_NAME, traceId);
     }
 
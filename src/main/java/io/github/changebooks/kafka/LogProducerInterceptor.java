@@ -7,12 +7,18 @@ import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
 
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * 拦截发送消息
  * 从日志上下文获取日志信息，设置待发送消息
+ * 配置 log.producer.in.place = true 时，直接追加到待发送消息的标头，不复制消息
+ * 配置 log.producer.header.format = BINARY 时，使用定长二进制标头，见 {@link KafkaHeaderFormat}
+ * 替换消息已有的同名日志标头，不重复新增
+ * {@link KafkaBatchSender} 发送时，日志上下文已设置为每条消息自己的日志信息，拦截器写入相同的 id
  *
  * @param <K> Key
  * @param <V> Value
@@ -22,6 +28,26 @@ public class LogProducerInterceptor<K, V> implements ProducerInterceptor<K, V> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LogProducerInterceptor.class);
 
+    /**
+     * 配置名：直接追加到待发送消息的标头？
+     */
+    public static final String IN_PLACE_CONFIG = "log.producer.in.place";
+
+    /**
+     * 配置名：日志标头格式
+     */
+    public static final String HEADER_FORMAT_CONFIG = "log.producer.header.format";
+
+    /**
+     * 直接追加到待发送消息的标头？否则，复制标头，新建待发送消息
+     */
+    private boolean inPlace;
+
+    /**
+     * 日志标头格式
+     */
+    private KafkaHeaderFormat headerFormat = KafkaHeaderFormat.STRING;
+
     @Override
     public ProducerRecord<K, V> onSend(ProducerRecord<K, V> rawRecord) {
         if (rawRecord == null) {
@@ -48,15 +74,31 @@ public class LogProducerInterceptor<K, V> implements ProducerInterceptor<K, V> {
      * 从日志上下文获取日志信息，设置待发送消息
      *
      * @param record 待发送的消息
-     * @return 新的待发送消息，包含日志信息
+     * @return 新的待发送消息，包含日志信息，直接追加时，返回 待发送的消息
      */
     public ProducerRecord<K, V> processLog(ProducerRecord<K, V> record) {
-        Headers headers = new RecordHeaders();
+        if (inPlace) {
+            try {
+                KafkaTraceContext.onSend(record.headers(), headerFormat);
+
+                return record;
+            } catch (IllegalStateException tr) {
+                // 只读标头，如：重新发送的消息，复制标头，新建待发送消息
+            }
+        }
 
-        KafkaTraceId.onSend(headers);
-        KafkaLogId.onSend(headers);
+        // 复制标头，替换同名日志标头，不修改待发送消息
+        Headers headers = new RecordHeaders(record.headers().toArray());
 
-        return KafkaHeaders.addProducer(record, headers);
+        KafkaTraceContext.onSend(headers, headerFormat);
+
+        return new ProducerRecord<>(
+                record.topic(),
+                record.partition(),
+                record.timestamp(),
+                record.key(),
+                record.value(),
+                headers);
     }
 
     @Override
@@ -69,6 +111,51 @@ public class LogProducerInterceptor<K, V> implements ProducerInterceptor<K, V> {
 
     @Override
     public void configure(Map<String, ?> configs) {
+        if (configs == null) {
+            return;
+        }
+
+        Object value = configs.get(IN_PLACE_CONFIG);
+        if (value != null) {
+            this.inPlace = Boolean.parseBoolean(value.toString());
+        }
+
+        value = configs.get(HEADER_FORMAT_CONFIG);
+        if (value != null) {
+            this.headerFormat = KafkaHeaderFormat.valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public boolean isInPlace() {
+        return inPlace;
+    }
+
+    /**
+     * 设置直接追加到待发送消息的标头？
+     *
+     * @param inPlace 直接追加？否则，复制标头，新建待发送消息
+     * @return the {@link LogProducerInterceptor} instance
+     */
+    public LogProducerInterceptor<K, V> setInPlace(boolean inPlace) {
+        this.inPlace = inPlace;
+        return this;
+    }
+
+    public KafkaHeaderFormat getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * 设置日志标头格式
+     *
+     * @param headerFormat 标头格式
+     * @return the {@link LogProducerInterceptor} instance
+     */
+    public LogProducerInterceptor<K, V> setHeaderFormat(KafkaHeaderFormat headerFormat) {
+        Assert.notNull(headerFormat, "headerFormat can't be null");
+
+        this.headerFormat = headerFormat;
+        return this;
     }
 
 }
@@ -0,0 +1,179 @@
+package io.github.changebooks.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量消费指标，基于 Micrometer
+ * kafka.batch.size             每批次行数
+ * kafka.batch.pages            每批次页数
+ * kafka.batch.latency          批次耗时
+ * kafka.batch.page.latency     分页耗时，result = success | failure
+ * kafka.batch.queue.wait       线程池任务从提交到开始执行的排队时间
+ * kafka.batch.await            调用线程等待其它线程的时间
+ * kafka.batch.failures         消费失败次数，cause = 异常类名 | false
+ * kafka.batch.retries          分页重试次数
+ * kafka.batch.rejected         许可不足或线程池拒绝，未提交的任务数
+ * kafka.batch.skipped          跳过的已消费消息数
+ * kafka.batch.compacted        按键合并掉的消息数
+ *
+ * @author changebooks@qq.com
+ */
+public class MicrometerBatchMetrics implements KafkaBatchMetrics {
+    /**
+     * 标签名：监听名
+     */
+    public static final String TAG_LISTENER = "listener";
+
+    /**
+     * 指标注册中心
+     */
+    private final MeterRegistry registry;
+
+    /**
+     * 监听名
+     */
+    private final String listener;
+
+    private final DistributionSummary batchSize;
+
+    private final DistributionSummary batchPages;
+
+    private final Timer batchLatency;
+
+    private final Timer pageSuccess;
+
+    private final Timer pageFailure;
+
+    private final Timer queueWait;
+
+    private final Timer await;
+
+    private final Counter failureFalse;
+
+    private final Counter retries;
+
+    private final Counter rejected;
+
+    private final Counter skipped;
+
+    private final Counter compacted;
+
+    public MicrometerBatchMetrics(MeterRegistry registry, String listener) {
+        Assert.notNull(registry, "registry can't be null");
+        Assert.hasText(listener, "listener can't be empty");
+
+        this.registry = registry;
+        this.listener = listener;
+
+        this.batchSize = DistributionSummary.builder("kafka.batch.size")
+                .tags(TAG_LISTENER, listener)
+                .publishPercentileHistogram()
+                .register(registry);
+
+        this.batchPages = DistributionSummary.builder("kafka.batch.pages")
+                .tags(TAG_LISTENER, listener)
+                .register(registry);
+
+        this.batchLatency = timer("kafka.batch.latency").register(registry);
+        this.pageSuccess = timer("kafka.batch.page.latency").tags("result", "success").register(registry);
+        this.pageFailure = timer("kafka.batch.page.latency").tags("result", "failure").register(registry);
+        this.queueWait = timer("kafka.batch.queue.wait").register(registry);
+        this.await = timer("kafka.batch.await").register(registry);
+        this.failureFalse = failures("false");
+        this.retries = registry.counter("kafka.batch.retries", TAG_LISTENER, listener);
+        this.rejected = registry.counter("kafka.batch.rejected", TAG_LISTENER, listener);
+        this.skipped = registry.counter("kafka.batch.skipped", TAG_LISTENER, listener);
+        this.compacted = registry.counter("kafka.batch.compacted", TAG_LISTENER, listener);
+    }
+
+    @Override
+    public void onBatch(int size, int pageNum, long elapsed) {
+        batchSize.record(size);
+        batchPages.record(pageNum);
+        batchLatency.record(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onPage(int size, long elapsed, boolean success) {
+        (success ? pageSuccess : pageFailure).record(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onQueue(long wait) {
+        queueWait.record(wait, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onAwait(long wait) {
+        await.record(wait, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onFailure(@Nullable Throwable cause) {
+        if (cause == null) {
+            failureFalse.increment();
+        } else {
+            failures(causeOf(cause)).increment();
+        }
+    }
+
+    @Override
+    public void onRetry(int attempts) {
+        retries.increment();
+    }
+
+    @Override
+    public void onRejected(int taskNum) {
+        rejected.increment(taskNum);
+    }
+
+    @Override
+    public void onSkipped(int size) {
+        skipped.increment(size);
+    }
+
+    @Override
+    public void onCompacted(int size) {
+        compacted.increment(size);
+    }
+
+    private Timer.Builder timer(String name) {
+        return Timer.builder(name)
+                .tags(TAG_LISTENER, listener)
+                .publishPercentileHistogram();
+    }
+
+    /**
+     * 异常的标签值
+     * 匿名类、合成类的简单类名为空，使用全限定类名
+     *
+     * @param cause 异常
+     * @return 类名
+     */
+    private static String causeOf(Throwable cause) {
+        Class<?> clazz = cause.getClass();
+
+        String name = clazz.getSimpleName();
+        return name.isEmpty() ? clazz.getName() : name;
+    }
+
+    private Counter failures(String cause) {
+        return registry.counter("kafka.batch.failures", TAG_LISTENER, listener, "cause", cause);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public String getListener() {
+        return listener;
+    }
+
+}
@@ -3,7 +3,9 @@ package io.github.changebooks.kafka;
 import org.springframework.util.Assert;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 /**
  * 分页
@@ -44,6 +46,59 @@ public final class PageUtils {
         return new PageList<>(list, pageSize);
     }
 
+    /**
+     * 计算分组
+     * 散列值相同的元素，分到同一组，组内保持原有顺序
+     *
+     * @param list   列表
+     * @param size   总组数
+     * @param hasher 散列函数
+     * @param <T>    元素类型
+     * @return 分组列表，不含空组
+     */
+    public static <T> List<List<T>> group(List<T> list, int size, ToIntFunction<T> hasher) {
+        Assert.notNull(list, "list can't be null");
+        Assert.isTrue(size > 0, "size must be greater than 0");
+        Assert.notNull(hasher, "hasher can't be null");
+
+        int totalSize = list.size();
+        if (size == 1 || totalSize <= 1) {
+            return new PageList<>(list, Math.max(totalSize, 1));
+        }
+
+        int[] lanes = new int[totalSize];
+        int[] counts = new int[size];
+
+        int index = 0;
+        for (T e : list) {
+            int h = hasher.applyAsInt(e);
+            int lane = Math.floorMod(h ^ (h >>> 16), size);
+            lanes[index++] = lane;
+            counts[lane]++;
+        }
+
+        List<List<T>> groups = new ArrayList<>(size);
+        List<T>[] laneList = newLaneList(size);
+        for (int i = 0; i < size; i++) {
+            if (counts[i] > 0) {
+                laneList[i] = new ArrayList<>(counts[i]);
+                groups.add(laneList[i]);
+            }
+        }
+
+        index = 0;
+        for (T e : list) {
+            laneList[lanes[index++]].add(e);
+        }
+
+        return groups;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T>[] newLaneList(int size) {
+        return (List<T>[]) new List<?>[size];
+    }
+
     /**
      * 分页列表
      *
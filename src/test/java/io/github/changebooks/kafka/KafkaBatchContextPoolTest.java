@@ -0,0 +1,76 @@
+package io.github.changebooks.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量消费上下文的对象池
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaBatchContextPoolTest {
+
+    /**
+     * 归还后、再次借出前，批量消费上下文及其返回的消费上下文不可读写
+     */
+    @Test
+    public void releasedContext() {
+        KafkaBatchContextPool pool = new KafkaBatchContextPool(1, 1);
+
+        KafkaBatchContextPool.Lease stale;
+        KafkaContext staleContext;
+        try (KafkaBatchContextPool.Lease lease = pool.borrow()) {
+            stale = lease;
+            staleContext = lease.newContext();
+            staleContext.setCode(1);
+            assertEquals(1, staleContext.getCode());
+        }
+
+        assertThrows(IllegalStateException.class, staleContext::getCode);
+        assertThrows(IllegalStateException.class, stale::newContext);
+        assertThrows(IllegalStateException.class, stale::getContexts);
+
+        // 重复归还，忽略
+        stale.close();
+    }
+
+    /**
+     * 再次借出时，原地重置复用，不再分配
+     */
+    @Test
+    public void reuseInPlace() {
+        KafkaBatchContextPool pool = new KafkaBatchContextPool(1, 1);
+
+        KafkaBatchContextPool.Lease first;
+        KafkaContext firstContext;
+        try (KafkaBatchContextPool.Lease lease = pool.borrow()) {
+            first = lease;
+            firstContext = lease.newContext();
+            firstContext.setCode(1);
+            firstContext.setMessage("failed");
+            lease.setAttribute("key", "value");
+        }
+
+        try (KafkaBatchContextPool.Lease lease = pool.borrow()) {
+            assertSame(first, lease);
+            assertTrue(lease.getContexts().isEmpty());
+            assertTrue(lease.getAttributes().isEmpty());
+
+            KafkaContext context = lease.newContext();
+            assertSame(firstContext, context);
+            assertTrue(context.isSuccess());
+            assertNull(context.getMessage());
+
+            // 超过预分配的容量，新建
+            assertNotSame(context, lease.newContext());
+            assertEquals(2, lease.getContexts().size());
+        }
+    }
+
+}
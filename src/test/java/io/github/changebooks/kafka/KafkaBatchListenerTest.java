@@ -0,0 +1,154 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static io.github.changebooks.kafka.KafkaTestSupport.sleep;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量消费
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaBatchListenerTest {
+
+    @AfterEach
+    public void tearDown() {
+        LogClear.clear();
+    }
+
+    /**
+     * 线程池拒绝时，调用线程消费剩余的分页，超过截止时间后不再领取，未领取的分页视为失败
+     */
+    @Test
+    public void rejectedDrainStopsAtDeadline() {
+        Executor rejecting = r -> {
+            throw new RejectedExecutionException("rejected");
+        };
+
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(rejecting, (records, context) -> {
+            sleep(50L);
+            return true;
+        }).setThreadNum(4).setChunkSize(1).setTimeout(100L);
+
+        long start = System.nanoTime();
+        KafkaBatchResult<String, String> result = listener.listenResult(records(20), null);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getIndex() > 0 && result.getIndex() < 20);
+        assertTrue(elapsed < 500L, "elapsed: " + elapsed);
+    }
+
+    /**
+     * 每条消息一个任务时，复制全部日志上下文，不只追溯id
+     */
+    @Test
+    public void perRecordCopiesLogContext() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+            LogTraceId.set("trace-1");
+            LogId.set("log-1");
+            MDC.put("tenant", "t-1");
+
+            Map<Long, String> contexts = new ConcurrentHashMap<>();
+            KafkaBatchListener<String, String> listener = KafkaBatchListener.perRecord(executor, (records, context) -> {
+                contexts.put(records.get(0).offset(), LogTraceId.get() + "/" + LogId.get() + "/" + MDC.get("tenant"));
+                return true;
+            });
+
+            assertTrue(listener.listen(records(8), null));
+            assertEquals(8, contexts.size());
+
+            for (String c : contexts.values()) {
+                assertEquals("trace-1/log-1/t-1", c);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 超时取消后，等待执行线程结束，返回时没有仍在消费的线程，等待期间完成的分页视为成功
+     */
+    @Test
+    public void cancelWaitsForWorkers() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+            AtomicInteger running = new AtomicInteger();
+            KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+                running.incrementAndGet();
+                try {
+                    // 不响应中断
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300L);
+                    while (System.nanoTime() < end) {
+                        Thread.yield();
+                    }
+
+                    return true;
+                } finally {
+                    running.decrementAndGet();
+                }
+            }).setThreadNum(2).setTimeout(50L).setCancelTimeout(2000L);
+
+            long start = System.nanoTime();
+            KafkaBatchResult<String, String> result = listener.listenResult(records(2), null);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(result.isSuccess());
+            assertEquals(0, running.get());
+            assertTrue(elapsed >= 250L, "elapsed: " + elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 未设置超时时间时，按 max.poll.interval.ms 计算，超时后中断执行线程
+     */
+    @Test
+    public void maxPollIntervalDeadline() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+            KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+                try {
+                    TimeUnit.SECONDS.sleep(10L);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }).setThreadNum(2).setMaxPollInterval(1500L).setCancelTimeout(1000L);
+
+            long start = System.nanoTime();
+            KafkaBatchResult<String, String> result = listener.listenResult(records(2), null);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertFalse(result.isSuccess());
+            assertTrue(elapsed < 1500L, "elapsed: " + elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
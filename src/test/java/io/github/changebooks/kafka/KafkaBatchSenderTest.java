@@ -0,0 +1,132 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.values;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+/**
+ * 批量发送
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaBatchSenderTest {
+
+    @AfterEach
+    public void tearDown() {
+        LogClear.clear();
+    }
+
+    /**
+     * 字符串按 UTF-8 字节数估算
+     */
+    @Test
+    public void estimateString() {
+        ProducerRecord<String, String> record = new ProducerRecord<>("test", "键", "值值");
+        assertEquals(KafkaBatchSender.RECORD_OVERHEAD + 9, KafkaBatchSender.estimate(record));
+    }
+
+    /**
+     * 不支持估算的类型，按默认的字节数估算，不按 0 字节估算
+     */
+    @Test
+    public void estimateUnknownType() {
+        ProducerRecord<String, Long> record = new ProducerRecord<>("test", "key", 1L);
+        assertEquals(KafkaBatchSender.RECORD_OVERHEAD + 3 + KafkaBatchSender.UNKNOWN_SIZE, KafkaBatchSender.estimate(record));
+        assertEquals(KafkaBatchSender.RECORD_OVERHEAD + 3 + 10, KafkaBatchSender.estimate(record, 10));
+    }
+
+    /**
+     * 累积发送：新增时读取调用方的追溯id和日志id，定时器线程发送时，替换已有的日志标头
+     * 拦截器在发送线程读取日志上下文，写入相同的 id，不重复新增
+     */
+    @Test
+    public void addKeepsCallerTrace() throws Exception {
+        KafkaTestSupport.InterceptingProducer producer = new KafkaTestSupport.InterceptingProducer();
+        KafkaBatchSender<String, String> sender = new KafkaBatchSender<>(KafkaTestSupport.template(producer), 1048576L)
+                .setBatchSize(100)
+                .setLingerMs(10L);
+
+        ProducerRecord<String, String> record = new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value");
+        KafkaHeaders.set(record.headers(), KafkaTraceId.KEY_NAME, "stale");
+
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+        CompletableFuture<SendResult<String, String>> future = sender.add(record);
+        LogClear.clear();
+
+        // 未满一批，共用的定时器发送
+        assertNotNull(future.get(5L, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("trace-1"), producer.traceIds);
+
+        ProducerRecord<String, String> sent = producer.history().get(0);
+        assertEquals(Arrays.asList("trace-1"), values(sent.headers(), KafkaTraceId.KEY_NAME));
+        assertEquals(Arrays.asList("log-1"), values(sent.headers(), KafkaLogId.KEY_NAME));
+    }
+
+    /**
+     * 批量发送：每条消息新建标头，不共用，发送后恢复调用方的日志上下文
+     */
+    @Test
+    public void sendHeadersNotShared() throws Exception {
+        KafkaTestSupport.InterceptingProducer producer = new KafkaTestSupport.InterceptingProducer();
+        KafkaBatchSender<String, String> sender = new KafkaBatchSender<>(KafkaTestSupport.template(producer), 1048576L);
+
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+
+        List<ProducerRecord<String, String>> records = Arrays.asList(
+                new ProducerRecord<>(KafkaTestSupport.TOPIC, "key-0", "value-0"),
+                new ProducerRecord<>(KafkaTestSupport.TOPIC, "key-1", "value-1"));
+
+        KafkaSendResult<String, String> result = sender.send(records).get(5L, TimeUnit.SECONDS);
+        assertEquals(2, result.size());
+
+        Header first = producer.history().get(0).headers().lastHeader(KafkaTraceId.KEY_NAME);
+        Header second = producer.history().get(1).headers().lastHeader(KafkaTraceId.KEY_NAME);
+        assertNotSame(first, second);
+        assertNotSame(first.value(), second.value());
+
+        assertEquals(Arrays.asList("trace-1"), values(producer.history().get(1).headers(), KafkaTraceId.KEY_NAME));
+        assertEquals("trace-1", LogTraceId.get());
+        assertEquals("log-1", LogId.get());
+    }
+
+    /**
+     * 发送时设置每条消息的日志上下文，发送后恢复调用方的日志上下文
+     */
+    @Test
+    public void flushRestoresLogContext() throws Exception {
+        KafkaTestSupport.InterceptingProducer producer = new KafkaTestSupport.InterceptingProducer();
+        KafkaBatchSender<String, String> sender = new KafkaBatchSender<>(KafkaTestSupport.template(producer), 1048576L)
+                .setLingerMs(60000L);
+
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+        CompletableFuture<SendResult<String, String>> future = sender.add(new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value"));
+        LogClear.clear();
+
+        sender.flush();
+        assertNotNull(future.get(5L, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("trace-1"), producer.traceIds);
+        assertFalse(StringUtils.hasText(LogTraceId.get()));
+        assertFalse(StringUtils.hasText(LogId.get()));
+    }
+
+}
@@ -0,0 +1,76 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 跨批次累积写入
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaBulkSinkTest {
+
+    private static final TopicPartition P0 = new TopicPartition("test", 0);
+
+    private static final TopicPartition P1 = new TopicPartition("test", 1);
+
+    /**
+     * 分区回收之前，丢弃回收分区累积中的消息，只写入、提交未回收的分区
+     */
+    @Test
+    public void revokeDropsBuffer() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            List<ConsumerRecord<String, String>> written = new CopyOnWriteArrayList<>();
+            KafkaBatchListener<String, String> batchListener = new KafkaBatchListener<>(executor, (records, context) -> {
+                written.addAll(records);
+                return true;
+            });
+
+            KafkaBulkSink<String, String> sink = new KafkaBulkSink<>(new KafkaPipelineListener<>(batchListener, 1))
+                    .setMaxRecords(100)
+                    .setLingerMs(60000L);
+
+            MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+            consumer.assign(Arrays.asList(P0, P1));
+
+            assertTrue(sink.listen(records(2, 0L, 10), consumer));
+            assertEquals(10, sink.getBufferSize());
+
+            sink.onPartitionsRevokedBeforeCommit(consumer, Collections.singleton(P0));
+            assertEquals(5, sink.getBufferSize());
+
+            sink.flush(consumer);
+            assertEquals(5, written.size());
+            for (ConsumerRecord<String, String> r : written) {
+                assertEquals(1, r.partition());
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(Arrays.asList(P0, P1)));
+            assertNull(committed.get(P0));
+            assertEquals(5L, committed.get(P1).offset());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package io.github.changebooks.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static io.github.changebooks.kafka.KafkaTestSupport.sleep;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 自适应线程数
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaConcurrencyLimitTest {
+
+    /**
+     * 成功且线程数用满时加一，失败或本批次的任务排队时按比例回退
+     */
+    @Test
+    public void aimd() {
+        KafkaConcurrencyLimit limit = new KafkaConcurrencyLimit(2, 10).setBackoffRatio(0.5);
+
+        limit.onBatch(100, 2, 1000L, 0, 0);
+        limit.onBatch(100, 3, 1000L, 0, 0);
+        assertEquals(4, limit.getLimit());
+
+        limit.onBatch(100, 4, 1000L, 0, 1);
+        assertEquals(2, limit.getLimit());
+
+        limit.onBatch(100, 2, 1000L, 1, 0);
+        assertEquals(2, limit.getLimit());
+    }
+
+    /**
+     * 共享线程池中其它任务排队，不影响本监听器的线程数
+     */
+    @Test
+    public void foreignQueueIgnored() {
+        // 线程池的队列中始终有其它监听器的任务
+        BlockingQueue<Runnable> foreign = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 4; i++) {
+            foreign.add(() -> {
+            });
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(8, 8, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<>()) {
+            @Override
+            public BlockingQueue<Runnable> getQueue() {
+                return foreign;
+            }
+        };
+
+        try {
+            KafkaConcurrencyLimit limit = new KafkaConcurrencyLimit(1, 4);
+            KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+                // 耗时与行数成正比
+                sleep(records.size() / 4L);
+                return true;
+            }).setConcurrencyLimit(limit);
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(listener.listen(records(64), null));
+            }
+
+            assertTrue(limit.getLimit() > 1, "limit: " + limit.getLimit());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
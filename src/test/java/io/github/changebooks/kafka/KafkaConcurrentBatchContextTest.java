@@ -0,0 +1,72 @@
+package io.github.changebooks.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量消费上下文的无锁实现
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaConcurrentBatchContextTest {
+
+    /**
+     * 获取的消费上下文列表是实时视图，超过容量后继续新增到末尾
+     */
+    @Test
+    public void liveView() {
+        KafkaConcurrentBatchContext batchContext = new KafkaConcurrentBatchContext(2);
+        List<KafkaContext> contexts = batchContext.getContexts();
+        assertTrue(contexts.isEmpty());
+
+        KafkaContext first = new KafkaContext();
+        KafkaContext second = new KafkaContext();
+        KafkaContext third = new KafkaContext();
+
+        batchContext.addContext(first);
+        assertEquals(1, contexts.size());
+
+        batchContext.addContext(second);
+        batchContext.addContext(third);
+        assertEquals(3, contexts.size());
+        assertSame(first, contexts.get(0));
+        assertSame(second, contexts.get(1));
+        assertSame(third, contexts.get(2));
+    }
+
+    /**
+     * 多线程新增，不丢失
+     */
+    @Test
+    public void concurrentAdd() throws InterruptedException {
+        KafkaConcurrentBatchContext batchContext = new KafkaConcurrentBatchContext(500);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100; i++) {
+                    batchContext.addContext(new KafkaContext());
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+
+        List<KafkaContext> contexts = batchContext.getContexts();
+        assertEquals(800, contexts.size());
+        for (KafkaContext c : contexts) {
+            assertNotNull(c);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.record;
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static io.github.changebooks.kafka.KafkaTestSupport.sleep;
+import static io.github.changebooks.kafka.KafkaTestSupport.template;
+import static io.github.changebooks.kafka.KafkaTestSupport.values;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 死信策略
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaDeadLetterPolicyTest {
+
+    private ExecutorService executor;
+
+    private KafkaTestSupport.InterceptingProducer producer;
+
+    private KafkaDeadLetterPolicy<String, String> policy;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        producer = new KafkaTestSupport.InterceptingProducer();
+        policy = new KafkaDeadLetterPolicy<>(template(producer)).setMaxFailures(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+        LogClear.clear();
+    }
+
+    /**
+     * 每条消息一页，全部消息失败时，视为下游不可用，不发送死信
+     */
+    @Test
+    public void singleRecordPagesOutage() {
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> false)
+                .setThreadNum(4)
+                .setChunkSize(1)
+                .setDeadLetterPolicy(policy);
+
+        KafkaBatchResult<String, String> result = listener.listenResult(records(8), null);
+
+        assertFalse(result.isSuccess());
+        assertEquals(0, result.getIndex());
+        assertTrue(producer.history().isEmpty());
+    }
+
+    /**
+     * 每条消息一页，只有一条消息无法消费时，发送死信，其余消息消费成功
+     */
+    @Test
+    public void singleRecordPagesPoison() {
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor,
+                (records, context) -> records.get(0).offset() != 3L)
+                .setThreadNum(4)
+                .setChunkSize(1)
+                .setDeadLetterPolicy(policy);
+
+        KafkaBatchResult<String, String> result = listener.listenResult(records(8), null);
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, producer.history().size());
+        assertEquals("test.DLT", producer.history().get(0).topic());
+        assertEquals("key-3", producer.history().get(0).key());
+    }
+
+    /**
+     * 持续全部失败超过 outageTimeout，视为消息无法消费，发送死信，分区不再阻塞
+     */
+    @Test
+    public void outageTimeout() {
+        policy.setOutageTimeout(100L);
+
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> false)
+                .setThreadNum(4)
+                .setChunkSize(1)
+                .setDeadLetterPolicy(policy);
+
+        assertFalse(listener.listenResult(records(8), null).isSuccess());
+        assertTrue(producer.history().isEmpty());
+
+        sleep(150L);
+
+        assertTrue(listener.listenResult(records(8), null).isSuccess());
+        assertEquals(8, producer.history().size());
+    }
+
+    /**
+     * 单线程消费，下游不可用期间，重新投递时不二分查找
+     */
+    @Test
+    public void noBisectDuringOutage() {
+        AtomicInteger attempts = new AtomicInteger();
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+            attempts.incrementAndGet();
+            return false;
+        }).setDeadLetterPolicy(policy);
+
+        assertFalse(listener.listen(records(8), null));
+        assertTrue(attempts.get() > 1);
+
+        attempts.set(0);
+        assertFalse(listener.listen(records(8), null));
+        assertEquals(1, attempts.get());
+        assertTrue(producer.history().isEmpty());
+    }
+
+    /**
+     * 死信保留原消息的追溯id和日志id，拦截器不写入消费线程的追溯id
+     */
+    @Test
+    public void publishKeepsOriginalTrace() {
+        LogTraceId.set("consumer-trace");
+
+        ConsumerRecord<String, String> record = record(3L, "trace-1", "log-1");
+        assertTrue(policy.publish(record, new IllegalStateException("failed")));
+
+        assertEquals(Collections.singletonList("trace-1"), producer.traceIds);
+        assertEquals(Collections.singletonList("trace-1"), values(producer.history().get(0).headers(), KafkaTraceId.KEY_NAME));
+        assertEquals(Collections.singletonList("log-1"), values(producer.history().get(0).headers(), KafkaLogId.KEY_NAME));
+        assertEquals("consumer-trace", LogTraceId.get());
+    }
+
+}
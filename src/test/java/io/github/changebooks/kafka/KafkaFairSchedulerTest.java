@@ -0,0 +1,82 @@
+package io.github.changebooks.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 公平调度
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaFairSchedulerTest {
+
+    /**
+     * 两个通道同时排队时，按权重分配执行时间，大流量通道不占满执行线程
+     */
+    @Test
+    public void weightedShares() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+            KafkaFairScheduler scheduler = new KafkaFairScheduler(executor, 1);
+            KafkaFairScheduler.Lane bulk = scheduler.register("bulk", 3);
+            KafkaFairScheduler.Lane latency = scheduler.register("latency", 1);
+
+            // 先占住唯一的执行线程，两个通道的任务全部排队后再开始
+            CountDownLatch gate = new CountDownLatch(1);
+            bulk.execute(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            int taskNum = 40;
+            CountDownLatch done = new CountDownLatch(taskNum * 2);
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < taskNum; i++) {
+                bulk.execute(task("bulk", order, done));
+                latency.execute(task("latency", order, done));
+            }
+
+            gate.countDown();
+            assertTrue(done.await(10L, TimeUnit.SECONDS));
+
+            // 两个通道都有排队时，执行的任务数约为 3:1
+            int bulkNum = Collections.frequency(order.subList(0, taskNum), "bulk");
+            assertTrue(bulkNum >= 24 && bulkNum <= 36, "bulkNum: " + bulkNum);
+
+            Map<String, Double> shares = scheduler.getShares();
+            assertEquals(2, shares.size());
+            assertEquals(1.0, shares.get("bulk") + shares.get("latency"), 0.0001);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Runnable task(String name, List<String> order, CountDownLatch done) {
+        return () -> {
+            // 忙等 1 毫秒，按实际耗时扣减额度
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1L);
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+
+            order.add(name);
+            done.countDown();
+        };
+    }
+
+}
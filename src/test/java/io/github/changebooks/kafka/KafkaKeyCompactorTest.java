@@ -0,0 +1,93 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.TOPIC;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 按键合并
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaKeyCompactorTest {
+
+    /**
+     * 后写覆盖：同键保留位移最大的一条，按每组最后一条消息的位置排序，键为空的消息不合并
+     */
+    @Test
+    public void lastWriteWins() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "a"),
+                record(1L, "b"),
+                record(2L, "a"),
+                record(3L, null),
+                record(4L, null),
+                record(5L, "b"));
+
+        Map<ConsumerRecord<String, String>, List<ConsumerRecord<String, String>>> groups = KafkaKeyCompactor.<String, String>lastWriteWins().compact(records);
+
+        List<Long> offsets = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (Map.Entry<ConsumerRecord<String, String>, List<ConsumerRecord<String, String>>> e : groups.entrySet()) {
+            offsets.add(e.getKey().offset());
+            sizes.add(e.getValue().size());
+        }
+
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), offsets);
+        assertEquals(Arrays.asList(2, 1, 1, 2), sizes);
+    }
+
+    /**
+     * 自定义合并函数
+     */
+    @Test
+    public void merger() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "a"),
+                record(1L, "a"));
+
+        KafkaKeyCompactor<String, String> compactor = new KafkaKeyCompactor<>((earlier, later) ->
+                new ConsumerRecord<>(later.topic(), later.partition(), later.offset(), later.key(), earlier.value() + "," + later.value()));
+
+        Map<ConsumerRecord<String, String>, List<ConsumerRecord<String, String>>> groups = compactor.compact(records);
+        assertEquals(1, groups.size());
+        assertEquals("value-0,value-1", groups.keySet().iterator().next().value());
+    }
+
+    /**
+     * 合并后的消息消费失败时，所覆盖的原消息全部视为失败，按原消息计算提交位置
+     */
+    @Test
+    public void failedGroupCoversOriginals() {
+        List<ConsumerRecord<String, String>> consumed = Collections.synchronizedList(new ArrayList<>());
+        KafkaBatchListener<String, String> listener = KafkaBatchListener.<String, String>perRecord(Runnable::run, (records, context) -> {
+            consumed.addAll(records);
+            return records.stream().noneMatch(r -> "b".equals(r.key()));
+        }).setKeyCompactor(KafkaKeyCompactor.lastWriteWins());
+
+        KafkaBatchResult<String, String> result = listener.listenResult(Arrays.asList(
+                record(0L, "a"),
+                record(1L, "b"),
+                record(2L, "a"),
+                record(3L, "b")), null);
+
+        assertEquals(2, consumed.size());
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.getIndex());
+        assertEquals(2, result.getFailedRecords().size());
+    }
+
+    private static ConsumerRecord<String, String> record(long offset, String key) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, key, "value-" + offset);
+    }
+
+}
@@ -0,0 +1,115 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogParentId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.record;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * 逐条设置日志上下文的分页
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaLogPageTest {
+
+    @AfterEach
+    public void tearDown() {
+        LogClear.clear();
+    }
+
+    /**
+     * 没有追溯id的消息，开始新的追溯；没有日志id的消息，不沿用上一条消息的父id
+     */
+    @Test
+    public void missingHeaders() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "trace-1", "log-1"),
+                record(1L, null, null),
+                record(2L, "trace-1", null));
+
+        List<String> traceIds = new ArrayList<>();
+        List<String> parentIds = new ArrayList<>();
+        for (ConsumerRecord<String, String> ignored : new KafkaLogPage<>(records)) {
+            traceIds.add(LogTraceId.get());
+            parentIds.add(LogParentId.get());
+        }
+
+        assertEquals("trace-1", traceIds.get(0));
+        assertEquals("log-1", parentIds.get(0));
+
+        assertNotEquals("trace-1", traceIds.get(1));
+        assertFalse(StringUtils.hasText(parentIds.get(1)));
+
+        assertEquals("trace-1", traceIds.get(2));
+        assertFalse(StringUtils.hasText(parentIds.get(2)));
+    }
+
+    /**
+     * 子列表遍历时，同样设置日志上下文
+     */
+    @Test
+    public void subList() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "trace-1", "log-1"),
+                record(1L, "trace-2", "log-2"));
+
+        for (ConsumerRecord<String, String> ignored : new KafkaLogPage<>(records).subList(1, 2)) {
+            assertEquals("trace-2", LogTraceId.get());
+            assertEquals("log-2", LogParentId.get());
+        }
+    }
+
+    /**
+     * 按下标获取时，同样设置日志上下文
+     */
+    @Test
+    public void get() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "trace-1", "log-1"),
+                record(1L, "trace-2", "log-2"));
+
+        KafkaLogPage<String, String> page = new KafkaLogPage<>(records);
+
+        page.get(1);
+        assertEquals("trace-2", LogTraceId.get());
+        assertEquals("log-2", LogParentId.get());
+
+        page.get(0);
+        assertEquals("trace-1", LogTraceId.get());
+        assertEquals("log-1", LogParentId.get());
+    }
+
+    /**
+     * 日志未开启 INFO 级别时，不解码标头，不修改日志上下文
+     */
+    @Test
+    public void loggingDisabled() {
+        List<ConsumerRecord<String, String>> records = Arrays.asList(
+                record(0L, "trace-1", "log-1"),
+                record(1L, "trace-2", "log-2"));
+
+        // logback-test.xml 的日志级别为 WARN
+        LogTraceId.set("caller");
+
+        for (ConsumerRecord<String, String> ignored : new KafkaLogPage<>(records, LoggerFactory.getLogger(KafkaLogPageTest.class))) {
+            assertEquals("caller", LogTraceId.get());
+        }
+
+        new KafkaLogPage<>(records, LoggerFactory.getLogger(KafkaLogPageTest.class)).get(1);
+        assertEquals("caller", LogTraceId.get());
+    }
+
+}
@@ -0,0 +1,111 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static io.github.changebooks.kafka.KafkaTestSupport.sleep;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流水线消费
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaPipelineListenerTest {
+
+    /**
+     * 同时消费的批次数不少于线程数，批次不占用分页的执行线程，不死锁
+     */
+    @Test
+    public void maxInFlightNotLessThanPoolSize() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            KafkaBatchListener<String, String> batchListener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+                sleep(1L);
+                return true;
+            }).setThreadNum(4);
+
+            KafkaPipelineListener<String, String> pipeline = new KafkaPipelineListener<>(batchListener, 2);
+
+            CompletableFuture<KafkaBatchResult<String, String>> first = pipeline.submit(records(4, 0L, 400), null);
+            CompletableFuture<KafkaBatchResult<String, String>> second = pipeline.submit(records(4, 100L, 400), null);
+
+            assertTrue(first.get(10L, TimeUnit.SECONDS).isSuccess());
+            assertTrue(second.get(10L, TimeUnit.SECONDS).isSuccess());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 协调线程不可与分页的执行线程共用
+     */
+    @Test
+    public void coordinatorSharedWithExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            KafkaBatchListener<String, String> batchListener = new KafkaBatchListener<>(executor, (records, context) -> true);
+            assertThrows(IllegalArgumentException.class, () -> new KafkaPipelineListener<>(batchListener, 2, executor));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 按分区分发时，同分区的批次按提交顺序消费
+     */
+    @Test
+    public void partitionOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Map<Integer, List<Long>> consumed = new ConcurrentHashMap<>();
+            KafkaBatchListener<String, String> batchListener = new KafkaBatchListener<String, String>(executor, (records, context) -> {
+                for (ConsumerRecord<String, String> r : records) {
+                    consumed.computeIfAbsent(r.partition(), p -> new CopyOnWriteArrayList<>()).add(r.offset());
+                }
+
+                // 先提交的批次更慢，不保持顺序时，后一批次先完成
+                sleep(records.get(0).offset() == 0L ? 50L : 1L);
+                return true;
+            }).setThreadNum(2).setDispatchMode(KafkaDispatchMode.PARTITION);
+
+            KafkaPipelineListener<String, String> pipeline = new KafkaPipelineListener<>(batchListener, 4);
+
+            List<CompletableFuture<KafkaBatchResult<String, String>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(pipeline.submit(records(2, i * 10L, 20), null));
+            }
+
+            for (CompletableFuture<KafkaBatchResult<String, String>> r : results) {
+                assertTrue(r.get(10L, TimeUnit.SECONDS).isSuccess());
+            }
+
+            assertEquals(2, consumed.size());
+            for (List<Long> offsets : consumed.values()) {
+                assertEquals(40, offsets.size());
+                for (int i = 0; i < offsets.size(); i++) {
+                    assertEquals(i, offsets.get(i).longValue());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.TOPIC;
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 已消费的消息
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaProcessedCacheTest {
+
+    /**
+     * 重新投递时，跳过已消费的消息
+     */
+    @Test
+    public void skipProcessed() {
+        KafkaProcessedCache cache = new KafkaProcessedCache(100);
+
+        List<ConsumerRecord<String, String>> records = records(1, 0L, 10);
+        cache.markAll(records.subList(0, 4));
+
+        List<ConsumerRecord<String, String>> unprocessed = cache.filter(records);
+        assertEquals(6, unprocessed.size());
+        assertEquals(4L, unprocessed.get(0).offset());
+    }
+
+    /**
+     * 分区重新分配时，清除该分区，新分配的分区不会误跳过
+     */
+    @Test
+    public void rebalanceClearsPartition() {
+        KafkaProcessedCache cache = new KafkaProcessedCache(100);
+
+        List<ConsumerRecord<String, String>> records = records(1, 0L, 10);
+        List<ConsumerRecord<String, String>> other = Collections.singletonList(record(1, 0L));
+        cache.markAll(records);
+        cache.markAll(other);
+
+        cache.onPartitionsRevokedBeforeCommit(null, Collections.singletonList(new TopicPartition(TOPIC, 0)));
+        assertFalse(cache.isProcessed(records.get(0)));
+        assertTrue(cache.isProcessed(other.get(0)));
+
+        cache.onPartitionsAssigned(null, Collections.singletonList(new TopicPartition(TOPIC, 1)));
+        assertFalse(cache.isProcessed(other.get(0)));
+    }
+
+    /**
+     * 投递的位移小于窗口、且超出窗口可容纳的范围时，视为位移重置，清除该分区
+     */
+    @Test
+    public void offsetResetClearsWindow() {
+        KafkaProcessedCache cache = new KafkaProcessedCache(10);
+
+        cache.markAll(records(1, 100L, 10));
+        assertTrue(cache.isProcessed(record(0, 105L)));
+
+        assertFalse(cache.isProcessed(record(0, 0L)));
+        assertFalse(cache.isProcessed(record(0, 105L)));
+    }
+
+    /**
+     * 多线程消费时，较早的分页较晚完成，不视为位移重置
+     */
+    @Test
+    public void latePageKeepsWindow() {
+        KafkaProcessedCache cache = new KafkaProcessedCache(10);
+
+        cache.markAll(records(1, 5L, 5));
+        assertFalse(cache.isProcessed(record(0, 0L)));
+
+        cache.markAll(records(1, 0L, 5));
+        assertTrue(cache.isProcessed(record(0, 0L)));
+        assertTrue(cache.isProcessed(record(0, 9L)));
+    }
+
+    private static ConsumerRecord<String, String> record(int partition, long offset) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, "key-" + offset, "value-" + offset);
+    }
+
+}
@@ -0,0 +1,87 @@
+package io.github.changebooks.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.records;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分页重试策略
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaRetryPolicyTest {
+
+    /**
+     * 按原因链匹配异常，循环引用的原因链不无限遍历
+     */
+    @Test
+    public void causeCycle() {
+        RuntimeException a = new RuntimeException("a");
+        IllegalStateException b = new IllegalStateException("b", a);
+        a.initCause(b);
+
+        KafkaRetryPolicy policy = new KafkaRetryPolicy().addNotRetryableException(IllegalArgumentException.class);
+        assertTimeoutPreemptively(Duration.ofSeconds(1L), () -> assertTrue(policy.isRetryable(a)));
+
+        policy.addNotRetryableException(IllegalStateException.class);
+        assertFalse(policy.isRetryable(a));
+    }
+
+    /**
+     * 退避时间按倍数增长，不超过最大退避时间
+     */
+    @Test
+    public void backoff() {
+        KafkaRetryPolicy policy = new KafkaRetryPolicy()
+                .setInitialBackoff(100L)
+                .setMultiplier(2.0)
+                .setMaxBackoff(300L)
+                .setJitter(0);
+
+        assertEquals(100L, policy.backoff(1));
+        assertEquals(200L, policy.backoff(2));
+        assertEquals(300L, policy.backoff(3));
+    }
+
+    /**
+     * 重试后仍失败，每页只记录一次失败，重试次数不计入失败次数
+     */
+    @Test
+    public void failureRecordedOncePerPage() {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger retries = new AtomicInteger();
+
+        KafkaBatchListener<String, String> listener = new KafkaBatchListener<String, String>(Runnable::run, (records, context) -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("failed");
+        }).setRetryPolicy(new KafkaRetryPolicy()
+                .setMaxAttempts(3)
+                .setInitialBackoff(1L)
+                .setJitter(0)
+        ).setMetrics(new KafkaBatchMetrics() {
+            @Override
+            public void onFailure(Throwable cause) {
+                failures.incrementAndGet();
+            }
+
+            @Override
+            public void onRetry(int attempts) {
+                retries.incrementAndGet();
+            }
+        });
+
+        assertFalse(listener.listenResult(records(4), null).isSuccess());
+        assertEquals(3, attempts.get());
+        assertEquals(2, retries.get());
+        assertEquals(1, failures.get());
+    }
+
+}
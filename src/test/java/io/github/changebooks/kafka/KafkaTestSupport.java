@@ -0,0 +1,151 @@
+package io.github.changebooks.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试的公共数据
+ *
+ * @author changebooks@qq.com
+ */
+final class KafkaTestSupport {
+    /**
+     * 主题
+     */
+    static final String TOPIC = "test";
+
+    private KafkaTestSupport() {
+    }
+
+    /**
+     * 单分区的消息，位移从 0 开始
+     *
+     * @param size 行数
+     * @return 消息
+     */
+    static List<ConsumerRecord<String, String>> records(int size) {
+        return records(1, 0L, size);
+    }
+
+    /**
+     * 按分区轮流的消息，如：分区数 2，依次为 P0@offset、P1@offset、P0@offset+1 ...
+     *
+     * @param partitionNum 分区数
+     * @param offset       每个分区的起始位移
+     * @param size         行数
+     * @return 消息
+     */
+    static List<ConsumerRecord<String, String>> records(int partitionNum, long offset, int size) {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(new ConsumerRecord<>(TOPIC, i % partitionNum, offset + i / partitionNum, "key-" + i, "value-" + i));
+        }
+
+        return records;
+    }
+
+    /**
+     * 携带字符串日志标头的消息
+     *
+     * @param offset  位移
+     * @param traceId 追溯id，空？不设置
+     * @param logId   日志id，空？不设置
+     * @return 消息
+     */
+    static ConsumerRecord<String, String> record(long offset, String traceId, String logId) {
+        ConsumerRecord<String, String> record = new ConsumerRecord<>(TOPIC, 0, offset, "key-" + offset, "value-" + offset);
+        if (traceId != null) {
+            KafkaHeaders.set(record.headers(), KafkaTraceId.KEY_NAME, traceId);
+        }
+
+        if (logId != null) {
+            KafkaHeaders.set(record.headers(), KafkaLogId.KEY_NAME, logId);
+        }
+
+        return record;
+    }
+
+    /**
+     * 发送到 MockProducer 的 KafkaTemplate
+     * KafkaTemplate 每次发送后关闭生产者，忽略关闭，复用 MockProducer
+     *
+     * @param producer 模拟的生产者
+     * @return KafkaTemplate
+     */
+    @SuppressWarnings("unchecked")
+    static KafkaTemplate<String, String> template(MockProducer<String, String> producer) {
+        Producer<String, String> proxy = (Producer<String, String>) Proxy.newProxyInstance(
+                Producer.class.getClassLoader(),
+                new Class<?>[]{Producer.class},
+                (p, method, args) -> method.getName().equals("close") ? null : method.invoke(producer, args));
+
+        return new KafkaTemplate<>(() -> proxy);
+    }
+
+    /**
+     * 休眠，中断时恢复中断状态
+     *
+     * @param millis 毫秒数
+     */
+    static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 标头的全部值
+     *
+     * @param headers 标头
+     * @param key     键名
+     * @return UTF-8 解码的值，按新增顺序
+     */
+    static List<String> values(Headers headers, String key) {
+        List<String> result = new ArrayList<>();
+        for (Header h : headers.headers(key)) {
+            result.add(new String(h.value(), StandardCharsets.UTF_8));
+        }
+
+        return result;
+    }
+
+    /**
+     * 模拟配置了 {@link LogProducerInterceptor} 的生产者，在发送线程设置日志标头，记录发送时的追溯id
+     */
+    static final class InterceptingProducer extends MockProducer<String, String> {
+
+        final LogProducerInterceptor<String, String> interceptor = new LogProducerInterceptor<String, String>().setInPlace(true);
+
+        final List<String> traceIds = new ArrayList<>();
+
+        InterceptingProducer() {
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+            traceIds.add(LogTraceId.get());
+            return super.send(interceptor.onSend(record), callback);
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogParentId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static io.github.changebooks.kafka.KafkaTestSupport.TOPIC;
+import static io.github.changebooks.kafka.KafkaTestSupport.values;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 日志上下文的二进制标头
+ *
+ * @author changebooks@qq.com
+ */
+public class KafkaTraceContextTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    private static final String LOG_ID = "00f067aa-0ba9-02b7-8c1d-5e6f7a8b9c0d";
+
+    @AfterEach
+    public void tearDown() {
+        LogClear.clear();
+    }
+
+    /**
+     * 编码、解码，32 位十六进制和 UUID 格式的 id 解码后与原 id 相同
+     */
+    @Test
+    public void roundTrip() {
+        byte[] value = KafkaTraceContext.encode(TRACE_ID, LOG_ID);
+        assertNotNull(value);
+        assertEquals(KafkaTraceContext.SIZE, value.length);
+
+        KafkaTraceContext c = KafkaTraceContext.decode(value);
+        assertNotNull(c);
+        assertEquals(TRACE_ID, c.getTraceId());
+        assertEquals(LOG_ID, c.getLogId());
+
+        assertNull(KafkaTraceContext.encode("trace-1", LOG_ID));
+        assertNull(KafkaTraceContext.decode(Arrays.copyOf(value, value.length - 1)));
+    }
+
+    /**
+     * 依次读取二进制标头、字符串标头、traceparent 标头
+     */
+    @Test
+    public void precedence() {
+        Headers headers = new RecordHeaders();
+        headers.add(KafkaTraceContext.TRACEPARENT, traceparent("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331"));
+        assertEquals("0af7651916cd43dd8448eb211c80319c", KafkaTraceContext.getTraceId(headers));
+        assertEquals("b7ad6b7169203331", KafkaTraceContext.getLogId(headers));
+
+        KafkaHeaders.set(headers, KafkaTraceId.KEY_NAME, "trace-1");
+        KafkaHeaders.set(headers, KafkaLogId.KEY_NAME, "log-1");
+        assertEquals("trace-1", KafkaTraceContext.getTraceId(headers));
+        assertEquals("log-1", KafkaTraceContext.getLogId(headers));
+
+        headers.add(KafkaTraceContext.KEY_NAME, KafkaTraceContext.encode(TRACE_ID, LOG_ID));
+        assertEquals(TRACE_ID, KafkaTraceContext.getTraceId(headers));
+        assertEquals(LOG_ID, KafkaTraceContext.getLogId(headers));
+    }
+
+    /**
+     * 发送时，只保留所选格式的标头，接收方不会读取其它格式过期的 id
+     */
+    @Test
+    public void removesStaleHeaders() {
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+
+        Headers headers = new RecordHeaders();
+        headers.add(KafkaTraceContext.KEY_NAME, KafkaTraceContext.encode(TRACE_ID, LOG_ID));
+        headers.add(KafkaTraceContext.TRACEPARENT, traceparent(TRACE_ID, "b7ad6b7169203331"));
+
+        KafkaTraceContext.onSend(headers, KafkaHeaderFormat.STRING);
+        assertNull(headers.lastHeader(KafkaTraceContext.KEY_NAME));
+        assertNull(headers.lastHeader(KafkaTraceContext.TRACEPARENT));
+        assertEquals(Collections.singletonList("trace-1"), values(headers, KafkaTraceId.KEY_NAME));
+        assertEquals(Collections.singletonList("log-1"), values(headers, KafkaLogId.KEY_NAME));
+
+        // id 不能定长编码，退回字符串标头
+        KafkaTraceContext.onSend(headers, KafkaHeaderFormat.BINARY_TRACEPARENT);
+        assertNull(headers.lastHeader(KafkaTraceContext.KEY_NAME));
+        assertNull(headers.lastHeader(KafkaTraceContext.TRACEPARENT));
+        assertEquals("trace-1", KafkaTraceContext.getTraceId(headers));
+
+        LogTraceId.set(TRACE_ID);
+        LogId.set(LOG_ID);
+        KafkaTraceContext.onSend(headers, KafkaHeaderFormat.BINARY);
+        assertNull(headers.lastHeader(KafkaTraceId.KEY_NAME));
+        assertNull(headers.lastHeader(KafkaLogId.KEY_NAME));
+        assertNull(headers.lastHeader(KafkaTraceContext.TRACEPARENT));
+        assertEquals(TRACE_ID, KafkaTraceContext.getTraceId(headers));
+        assertEquals(LOG_ID, KafkaTraceContext.getLogId(headers));
+    }
+
+    /**
+     * traceparent：00-追溯id-日志id 的前 8 字节-01，格式不符时不读取
+     */
+    @Test
+    public void traceparent() {
+        LogTraceId.set(TRACE_ID);
+        LogId.set(LOG_ID);
+
+        Headers headers = new RecordHeaders();
+        KafkaTraceContext.onSend(headers, KafkaHeaderFormat.BINARY_TRACEPARENT);
+
+        assertEquals(Collections.singletonList("00-" + TRACE_ID + "-00f067aa0ba902b7-01"), values(headers, KafkaTraceContext.TRACEPARENT));
+
+        assertNull(KafkaTraceContext.decodeTraceparent(traceparent("00000000000000000000000000000000", "b7ad6b7169203331")));
+        assertNull(KafkaTraceContext.decodeTraceparent("ff-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(KafkaTraceContext.decodeTraceparent("00-0AF7651916CD43DD8448EB211C80319C-b7ad6b7169203331-01".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * 逐条设置日志上下文的分页，与 getTraceId、getLogId 的读取顺序相同
+     */
+    @Test
+    public void logPageFollowsPrecedence() {
+        ConsumerRecord<String, String> record = new ConsumerRecord<>(TOPIC, 0, 0L, "key", "value");
+        KafkaHeaders.set(record.headers(), KafkaTraceId.KEY_NAME, "trace-1");
+        record.headers().add(KafkaTraceContext.TRACEPARENT, traceparent(TRACE_ID, "b7ad6b7169203331"));
+
+        new KafkaLogPage<>(Collections.singletonList(record)).get(0);
+
+        assertEquals(KafkaTraceContext.getTraceId(record.headers()), LogTraceId.get());
+        assertEquals(KafkaTraceContext.getLogId(record.headers()), LogParentId.get());
+    }
+
+    private static byte[] traceparent(String traceId, String parentId) {
+        return ("00-" + traceId + "-" + parentId + "-01").getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,86 @@
+package io.github.changebooks.kafka;
+
+import io.github.changebooks.log.LogClear;
+import io.github.changebooks.log.LogId;
+import io.github.changebooks.log.LogTraceId;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 拦截发送消息
+ *
+ * @author changebooks@qq.com
+ */
+public class LogProducerInterceptorTest {
+
+    @AfterEach
+    public void tearDown() {
+        LogClear.clear();
+    }
+
+    /**
+     * 直接追加时，返回原消息；否则，新建消息
+     */
+    @Test
+    public void inPlace() {
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+
+        ProducerRecord<String, String> record = new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value");
+        ProducerRecord<String, String> sent = new LogProducerInterceptor<String, String>().setInPlace(true).onSend(record);
+
+        assertSame(record, sent);
+        assertEquals("trace-1", KafkaHeaders.get(sent.headers(), KafkaTraceId.KEY_NAME));
+        assertEquals("log-1", KafkaHeaders.get(sent.headers(), KafkaLogId.KEY_NAME));
+
+        record = new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value");
+        sent = new LogProducerInterceptor<String, String>().onSend(record);
+
+        assertNotSame(record, sent);
+        assertEquals("trace-1", KafkaHeaders.get(sent.headers(), KafkaTraceId.KEY_NAME));
+    }
+
+    /**
+     * 每条消息的标头值独立，修改一条消息的标头，不影响其它消息
+     */
+    @Test
+    public void headerValuesNotShared() {
+        LogTraceId.set("trace-1");
+        LogId.set("log-1");
+
+        LogProducerInterceptor<String, String> interceptor = new LogProducerInterceptor<String, String>().setInPlace(true);
+        ProducerRecord<String, String> first = interceptor.onSend(new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value"));
+        ProducerRecord<String, String> second = interceptor.onSend(new ProducerRecord<>(KafkaTestSupport.TOPIC, "key", "value"));
+
+        first.headers().lastHeader(KafkaTraceId.KEY_NAME).value()[0] = 'X';
+        assertEquals("trace-1", KafkaHeaders.get(second.headers(), KafkaTraceId.KEY_NAME));
+    }
+
+    /**
+     * 标头格式的配置不区分大小写，与默认语言无关
+     */
+    @Test
+    public void headerFormatConfigIgnoresLocale() {
+        Locale locale = Locale.getDefault();
+
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+
+            LogProducerInterceptor<String, String> interceptor = new LogProducerInterceptor<>();
+            interceptor.configure(Collections.singletonMap(LogProducerInterceptor.HEADER_FORMAT_CONFIG, "binary_traceparent"));
+
+            assertEquals(KafkaHeaderFormat.BINARY_TRACEPARENT, interceptor.getHeaderFormat());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package io.github.changebooks.kafka;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量消费指标
+ *
+ * @author changebooks@qq.com
+ */
+public class MicrometerBatchMetricsTest {
+
+    /**
+     * 失败次数按异常的简单类名打标签，匿名类使用全限定类名
+     */
+    @Test
+    public void failureCause() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerBatchMetrics metrics = new MicrometerBatchMetrics(registry, KafkaTestSupport.TOPIC);
+
+        metrics.onFailure(new IllegalStateException("failed"));
+        metrics.onFailure(new RuntimeException("anonymous") {
+        });
+
+        Counter named = registry.find("kafka.batch.failures").tag("cause", "IllegalStateException").counter();
+        assertNotNull(named);
+        assertEquals(1.0, named.count());
+
+        String anonymous = MicrometerBatchMetricsTest.class.getName() + "$1";
+        Counter counter = registry.find("kafka.batch.failures").tag("cause", anonymous).counter();
+        assertNotNull(counter);
+        assertEquals(1.0, counter.count());
+
+        assertTrue(registry.find("kafka.batch.failures").tag("cause", "").counters().isEmpty());
+    }
+
+}